@@ -0,0 +1,143 @@
+/*
+ArenaTree.java - Reed Foster
+Read-only Tree view of a node stored in an AstArena; views are created on demand as the tree is walked
+*/
+
+package com.foster.cdl;
+
+import java.util.*;
+
+public class ArenaTree extends Tree
+{
+    private final AstArena arena;
+    private final int node; // index of the node in arena
+
+    ArenaTree(AstArena arena, int node)
+    {
+        super(arena.kind(node), new AttributeView(arena, node), Collections.<Tree>emptyList(), arena.symbol(node), arena.operator(node));
+        this.arena = arena;
+        this.node = node;
+    }
+
+    /**
+    * Map view of the attribute slots of an arena node
+    */
+    private static class AttributeView extends AbstractMap<String, String>
+    {
+        private final AstArena arena;
+        private final int node;
+
+        AttributeView(AstArena arena, int node)
+        {
+            this.arena = arena;
+            this.node = node;
+        }
+
+        @Override
+        public String get(Object key)
+        {
+            int slot = AstArena.slot(key);
+            return slot == AstArena.NONE ? null : this.arena.attributeValue(this.node, slot);
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            return this.get(key) != null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet()
+        {
+            Set<Map.Entry<String, String>> entries = new LinkedHashSet<Map.Entry<String, String>>();
+            for (int slot = 0; slot < AstArena.ATTRIBUTES.length; slot++)
+            {
+                String value = this.arena.attributeValue(this.node, slot);
+                if (value != null)
+                    entries.add(new AbstractMap.SimpleImmutableEntry<String, String>(AstArena.ATTRIBUTES[slot], value));
+            }
+            return Collections.unmodifiableSet(entries);
+        }
+    }
+
+    /**
+    * Accessor methods for code migrating to index-based access
+    */
+    public AstArena getArena()
+    {
+        return this.arena;
+    }
+
+    public int getNode()
+    {
+        return this.node;
+    }
+
+    @Override
+    public void addChild(Tree child)
+    {
+        throw new UnsupportedOperationException("arena trees are read-only");
+    }
+
+    @Override
+    public void removeChild(int index)
+    {
+        throw new UnsupportedOperationException("arena trees are read-only");
+    }
+
+    @Override
+    public DeclaredIdentifier getBinding()
+    {
+        return this.arena.binding(this.node);
+    }
+
+    @Override
+    void bind(DeclaredIdentifier declaration)
+    {
+        this.arena.bind(this.node, declaration);
+    }
+
+    @Override
+    public CdlType getExpressionType()
+    {
+        return this.arena.type(this.node);
+    }
+
+    @Override
+    void setExpressionType(CdlType type)
+    {
+        this.arena.setType(this.node, type);
+    }
+
+    @Override
+    public int numChildren()
+    {
+        return this.arena.numChildren(this.node);
+    }
+
+    /**
+    * Finds the child in constant time, but creates a new view on every call (views are small and share all their state
+    * with the arena, but aren't the same object twice), so code that walks all the children should use childList()
+    */
+    @Override
+    public Tree getChild(int index)
+    {
+        return this.arena.view(this.arena.child(this.node, index));
+    }
+
+    @Override
+    public List<Tree> childList()
+    {
+        return this.getChildren(); // views are created on demand, so there's no list to share
+    }
+
+    @Override
+    public List<Tree> getChildren()
+    {
+        int first = this.arena.firstChild(this.node);
+        List<Tree> children = new ArrayList<Tree>(this.numChildren());
+        for (int i = 0; i < this.numChildren(); i++)
+            children.add(this.arena.view(first + i));
+        return children;
+    }
+}
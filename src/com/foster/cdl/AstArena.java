@@ -0,0 +1,301 @@
+/*
+AstArena.java - Reed Foster
+Compact AST storage: every node of a component lives in one set of parallel primitive arrays
+(kind, first-child index and child count, and attribute slots) instead of a Tree object with its own HashMap and ArrayList.
+Nodes are numbered breadth first, so the children of a node have consecutive indices and any child is found in constant time.
+Arch bodies that haven't been parsed yet (LazyArch) are kept as opaque leaves, so compacting doesn't force them to be parsed;
+each one compacts its own body into an arena of its own when it's first used
+*/
+
+package com.foster.cdl;
+
+import java.util.*;
+
+public class AstArena
+{
+    private static final Nodetype[] NODETYPES = Nodetype.values();
+    private static final Operator[] OPERATORS = Operator.values();
+
+    // attribute slots, in the order they're reported by ArenaTree's attribute view
+    public static final String[] ATTRIBUTES = {"name", "type", "direction", "value"};
+    public static final int NAME = 0, TYPE = 1, DIRECTION = 2, VALUE = 3;
+    private static final int NUMATTRIBUTES = ATTRIBUTES.length;
+
+    public static final int NONE = -1; // null link
+
+    private int size;
+    private int[] kinds; // Nodetype ordinals
+    private int[] firstChild; // index of the first child, NONE for leaves; the rest follow it
+    private int[] numChildren;
+    private int[] symbols; // Tree.symbol of each node
+    private int[] operators; // Operator ordinals, NONE for nodes that aren't operators
+    private int[] attributes; // NUMATTRIBUTES slots per node: a SymbolTable id for NAME, an index into strings for the others, or NONE
+    private String[] strings; // distinct values of the non-NAME slots (types, directions, literal text), kept out of the global SymbolTable
+    private Map<String, Integer> pool; // index of each value in strings, only while the arena is being built
+    private Map<Integer, LazyArch> lazy; // unparsed arch bodies by node index (viewed as themselves rather than as ArenaTrees)
+    // written by type-checking tasks that may run in parallel (each on different nodes), so they're allocated under the lock
+    private volatile DeclaredIdentifier[] bindings; // Tree.getBinding() of each node, null until the first node is bound
+    private volatile CdlType[] types; // Tree.getExpressionType() of each node, null until the first expression is checked
+
+    /**
+    * Constructor, builds an arena with capacity for a given number of nodes
+    */
+    private AstArena(int capacity)
+    {
+        this.size = 0;
+        this.kinds = new int[capacity];
+        this.firstChild = new int[capacity];
+        this.numChildren = new int[capacity];
+        this.symbols = new int[capacity];
+        this.operators = new int[capacity];
+        this.attributes = new int[capacity * NUMATTRIBUTES];
+        this.strings = null; // filled in from pool once every node has been added
+        this.pool = new HashMap<String, Integer>();
+        this.lazy = new HashMap<Integer, LazyArch>();
+    }
+
+    /**
+    * Returns true if node is an arch body that hasn't been parsed, so it's stored as an opaque leaf
+    */
+    private static boolean isLazy(Tree node)
+    {
+        return node instanceof LazyArch && !((LazyArch) node).isParsed();
+    }
+
+    /**
+    * Counts the nodes of a tree (iteratively, so deep expression chains don't overflow the stack)
+    */
+    private static int count(Tree root)
+    {
+        int count = 0;
+        Deque<Tree> stack = new ArrayDeque<Tree>();
+        stack.push(root);
+        while (!stack.isEmpty())
+        {
+            Tree node = stack.pop();
+            count++;
+            if (isLazy(node))
+                continue;
+            for (Tree child : node.childList())
+                stack.push(child);
+        }
+        return count;
+    }
+
+    /**
+    * Flattens a tree into a new arena; nodes are numbered breadth first, so the root is node 0
+    * and each node's children are numbered consecutively, in order
+    * @param root Tree to flatten
+    * @return AstArena holding a copy of the tree
+    */
+    public static AstArena compact(Tree root)
+    {
+        int count = count(root);
+        AstArena arena = new AstArena(count);
+        // queue of added nodes whose children haven't been added yet; nodes[i] is the Tree of arena node i
+        Tree[] nodes = new Tree[count];
+        nodes[arena.add(root)] = root;
+        for (int index = 0; index < arena.size; index++)
+        {
+            Tree node = nodes[index];
+            nodes[index] = null;
+            if (arena.lazy.containsKey(index))
+                continue;
+            List<Tree> children = node.childList();
+            if (!children.isEmpty())
+                arena.firstChild[index] = arena.size;
+            for (Tree child : children)
+                nodes[arena.add(child)] = child;
+        }
+        arena.strings = new String[arena.pool.size()];
+        for (Map.Entry<String, Integer> entry : arena.pool.entrySet())
+            arena.strings[entry.getValue()] = entry.getKey();
+        arena.pool = null;
+        return arena;
+    }
+
+    /**
+    * Appends a node (without links) to the arena
+    * @return int index of the new node
+    */
+    private int add(Tree node)
+    {
+        int index = this.size++;
+        this.kinds[index] = node.nodetype.ordinal();
+        this.firstChild[index] = NONE;
+        if (isLazy(node))
+        {
+            LazyArch arch = (LazyArch) node;
+            arch.compactWhenParsed();
+            this.lazy.put(index, arch);
+        }
+        else
+            this.numChildren[index] = node.numChildren();
+        this.symbols[index] = node.symbol;
+        this.operators[index] = node.operator == null ? NONE : node.operator.ordinal();
+        for (int slot = 0; slot < NUMATTRIBUTES; slot++)
+        {
+            String value = node.attributes.get(ATTRIBUTES[slot]);
+            int id = NONE;
+            if (value != null && slot == NAME)
+                id = SymbolTable.intern(value); // identifiers are already in the table (the lexer put them there)
+            else if (value != null)
+            {
+                Integer pooled = this.pool.putIfAbsent(value, this.pool.size());
+                id = pooled == null ? this.pool.size() - 1 : pooled;
+            }
+            this.attributes[index * NUMATTRIBUTES + slot] = id;
+        }
+        return index;
+    }
+
+    /**
+    * Get the number of nodes in the arena
+    */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+    * Gets a read-only Tree view of the root node, for code that hasn't migrated to index-based access
+    */
+    public Tree root()
+    {
+        return this.view(0);
+    }
+
+    /**
+    * Gets a read-only Tree view of a node
+    * @return Tree view of the node; an arch body that was unparsed when the arena was built is its LazyArch
+    */
+    public Tree view(int node)
+    {
+        LazyArch arch = this.lazy.isEmpty() ? null : this.lazy.get(node);
+        return arch != null ? arch : new ArenaTree(this, node);
+    }
+
+    public Nodetype kind(int node)
+    {
+        return NODETYPES[this.kinds[node]];
+    }
+
+    public int firstChild(int node)
+    {
+        return this.firstChild[node];
+    }
+
+    public int numChildren(int node)
+    {
+        return this.numChildren[node];
+    }
+
+    public int symbol(int node)
+    {
+        return this.symbols[node];
+    }
+
+    /**
+    * @return Operator of the node, or null if it isn't an operator node
+    */
+    public Operator operator(int node)
+    {
+        int operator = this.operators[node];
+        return operator == NONE ? null : OPERATORS[operator];
+    }
+
+    /**
+    * @return DeclaredIdentifier the node was bound to by NameBinder, or null
+    */
+    public DeclaredIdentifier binding(int node)
+    {
+        return this.bindings == null ? null : this.bindings[node];
+    }
+
+    void bind(int node, DeclaredIdentifier declaration)
+    {
+        DeclaredIdentifier[] bindings = this.bindings;
+        if (bindings == null)
+        {
+            synchronized (this)
+            {
+                if (this.bindings == null)
+                    this.bindings = new DeclaredIdentifier[this.size];
+                bindings = this.bindings;
+            }
+        }
+        bindings[node] = declaration;
+    }
+
+    /**
+    * @return CdlType of the expression cached by ComponentVerifier, or null
+    */
+    public CdlType type(int node)
+    {
+        return this.types == null ? null : this.types[node];
+    }
+
+    void setType(int node, CdlType type)
+    {
+        CdlType[] types = this.types;
+        if (types == null)
+        {
+            synchronized (this)
+            {
+                if (this.types == null)
+                    this.types = new CdlType[this.size];
+                types = this.types;
+            }
+        }
+        types[node] = type;
+    }
+
+    /**
+    * Gets the index of a child; children are numbered consecutively, so this takes constant time
+    * @param node int parent
+    * @param index int position of the child
+    * @return int node index of the child
+    * @throws IndexOutOfBoundsException if the node doesn't have that many children
+    */
+    public int child(int node, int index)
+    {
+        return this.firstChild[node] + Objects.checkIndex(index, this.numChildren[node]);
+    }
+
+    /**
+    * Gets the id stored in an attribute slot
+    * @param node int node index
+    * @param slot int one of NAME, TYPE, DIRECTION, VALUE
+    * @return int SymbolTable id for NAME, index into the arena's string pool for the other slots, or NONE if the node has no such attribute
+    */
+    public int attribute(int node, int slot)
+    {
+        return this.attributes[node * NUMATTRIBUTES + slot];
+    }
+
+    /**
+    * Gets the value of an attribute slot as a string
+    * @return String value, or null if the node has no such attribute
+    */
+    public String attributeValue(int node, int slot)
+    {
+        int id = this.attribute(node, slot);
+        if (id == NONE)
+            return null;
+        return slot == NAME ? SymbolTable.name(id) : this.strings[id];
+    }
+
+    /**
+    * Maps an attribute name to its slot
+    * @return int slot, or NONE for names that aren't stored in the arena
+    */
+    public static int slot(Object key)
+    {
+        for (int slot = 0; slot < NUMATTRIBUTES; slot++)
+        {
+            if (ATTRIBUTES[slot].equals(key))
+                return slot;
+        }
+        return NONE;
+    }
+}
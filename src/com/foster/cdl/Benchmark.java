@@ -0,0 +1,438 @@
+/*
+Benchmark.java - Reed Foster
+Timing harness for the compiler phases on large generated designs
+usage: java com.foster.cdl.Benchmark [phase] [size]
+*/
+
+package com.foster.cdl;
+
+import java.util.*;
+
+public class Benchmark
+{
+    private static final int WARMUP = 5;
+    private static final int RUNS = 10;
+
+    /**
+    * Generates a synthetic project: a chain of components, each with a handful of ports and
+    * a wide architecture of signal declarations and assignments
+    * @param components int number of components to generate
+    * @param assignments int number of signal assignments per architecture
+    * @return String CDL source
+    */
+    public static String generate(int components, int assignments)
+    {
+        StringBuilder source = new StringBuilder();
+        for (int c = 0; c < components; c++)
+        {
+            source.append("// generated component ").append(c).append("\n");
+            source.append("component C").append(c).append("\n{\n");
+            source.append("    port\n    {\n");
+            source.append("        input vec[8] a;\n        input vec[8] b;\n        input bool sel;\n");
+            source.append("        output vec[8] y;\n    }\n");
+            source.append("    arch\n    {\n");
+            source.append("        /* intermediate signals */\n");
+            for (int i = 0; i < assignments; i++)
+                source.append("        signal vec[8] s").append(i).append(";\n");
+            if (c + 1 < components)
+                source.append("        C").append(c + 1).append(" sub = new C").append(c + 1).append("();\n");
+            for (int i = 0; i < assignments; i++)
+            {
+                source.append("        s").append(i).append(" <= sel ? a xor b : (a and ");
+                source.append(i == 0 ? "b" : "s" + (i - 1)).append(") or x\"0f\";\n");
+            }
+            source.append("        y <= s").append(assignments - 1).append(";\n");
+            source.append("    }\n}\n\n");
+        }
+        return source.toString();
+    }
+
+    /**
+    * Generates a component with one very wide reduction expression, like a generated parity tree
+    * @param terms int number of operands in the expression
+    * @return String CDL source
+    */
+    public static String reduction(int terms)
+    {
+        StringBuilder source = new StringBuilder("component Parity\n{\n    port\n    {\n        input vec[8] a;\n        output vec[8] y;\n    }\n    arch\n    {\n        y <= a");
+        for (int i = 1; i < terms; i++)
+            source.append(i % 8 == 0 ? "\n            xor a" : " xor a");
+        source.append(";\n    }\n}\n");
+        return source.toString();
+    }
+
+    /**
+    * Generates a top-level component with many instances of one wide-port leaf, with every port of every instance connected
+    * @param instances int number of instances
+    * @param ports int number of input ports of the leaf (it has as many outputs)
+    * @return String CDL source
+    */
+    public static String instances(int instances, int ports)
+    {
+        StringBuilder source = new StringBuilder("component Leaf\n{\n    port\n    {\n");
+        for (int p = 0; p < ports; p++)
+            source.append("        input vec[8] i").append(p).append(";\n        output vec[8] o").append(p).append(";\n");
+        source.append("    }\n    arch\n    {\n");
+        for (int p = 0; p < ports; p++)
+            source.append("        o").append(p).append(" <= i").append(p).append(";\n");
+        source.append("    }\n}\n\ncomponent Top\n{\n    port\n    {\n        input vec[8] a;\n        output vec[8] y;\n    }\n    arch\n    {\n");
+        for (int n = 0; n < instances; n++)
+            source.append("        Leaf l").append(n).append(" = new Leaf();\n");
+        for (int n = 0; n < instances; n++)
+        {
+            for (int p = 0; p < ports; p++)
+                source.append("        l").append(n).append(".i").append(p).append(" <= ").append(n == 0 ? "a" : "l" + (n - 1) + ".o" + p).append(";\n");
+        }
+        source.append("        y <= l").append(instances - 1).append(".o0;\n    }\n}\n");
+        return source.toString();
+    }
+
+    /**
+    * Pads generated source the way machine-generated netlists look: deep indentation and a comment on every line
+    * @param source String CDL source to pad
+    * @return String padded source
+    */
+    public static String pad(String source)
+    {
+        String indent = new String(new char[48]).replace("\0", " ");
+        StringBuilder padded = new StringBuilder(source.length() * 4);
+        for (String line : source.split("\n"))
+        {
+            padded.append(indent).append(line).append(indent).append("// ").append(indent).append("generated\n");
+            padded.append(indent).append("/*\n").append(indent).append(" * ").append(indent).append("\n").append(indent).append(" */\n\n");
+        }
+        return padded.toString();
+    }
+
+    /**
+    * Runs a task WARMUP + RUNS times and prints the mean time of the measured runs
+    * @param name String label for the output
+    * @param bytes long size of the input (for throughput), or 0 to omit throughput
+    * @param task Runnable to time
+    */
+    public static void time(String name, long bytes, Runnable task)
+    {
+        for (int i = 0; i < WARMUP; i++)
+            task.run();
+        long total = 0;
+        for (int i = 0; i < RUNS; i++)
+        {
+            long start = System.nanoTime();
+            task.run();
+            total += System.nanoTime() - start;
+        }
+        double ms = total / (RUNS * 1e6);
+        if (bytes > 0)
+            System.out.println(String.format("%-24s %10.2f ms %10.1f MB/s", name, ms, bytes / (ms * 1e3)));
+        else
+            System.out.println(String.format("%-24s %10.2f ms", name, ms));
+    }
+
+    /**
+    * Counts every token in source with the allocation-free scan() path
+    */
+    private static int lex(CharSequence source)
+    {
+        Lexer lexer = new Lexer(source);
+        int count = 0;
+        while (lexer.scan() != Tokentype.EOF)
+            count++;
+        return count;
+    }
+
+    /**
+    * Splits source into components and tokenizes each one, so parsing can be timed on its own
+    */
+    private static List<TokenBuffer> tokenize(String source) throws java.io.IOException
+    {
+        List<TokenBuffer> buffers = new ArrayList<TokenBuffer>();
+        ComponentReader reader = new ComponentReader(java.nio.channels.Channels.newChannel(new java.io.ByteArrayInputStream(source.getBytes())));
+        CharSequence unit;
+        while ((unit = reader.next()) != null)
+            buffers.add(new TokenBuffer(unit));
+        return buffers;
+    }
+
+    /**
+    * Parses every tokenized component
+    * @return int number of components parsed
+    */
+    private static int parse(List<TokenBuffer> buffers)
+    {
+        int count = 0;
+        for (TokenBuffer buffer : buffers)
+        {
+            if (new Parser(buffer).parse() != null)
+                count++;
+        }
+        return count;
+    }
+
+    private static ComponentReader reader(String source)
+    {
+        return new ComponentReader(java.nio.channels.Channels.newChannel(new java.io.ByteArrayInputStream(source.getBytes())));
+    }
+
+    /**
+    * Splits and parses every component on the calling thread
+    * @return int number of components parsed
+    */
+    private static int frontEndSequential(String source)
+    {
+        try
+        {
+            ComponentReader reader = reader(source);
+            List<Component> components = new ArrayList<Component>();
+            CharSequence unit;
+            while ((unit = reader.next()) != null)
+                components.add(new Component(unit, reader.line(), reader.col(), false, false));
+            return components.size();
+        }
+        catch (java.io.IOException e)
+        {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    /**
+    * Splits every component on the calling thread and parses them on the common ForkJoinPool
+    * @return int number of components parsed
+    */
+    private static int frontEndParallel(String source)
+    {
+        try
+        {
+            return Component.parseAll(reader(source), false, false).size();
+        }
+        catch (java.io.IOException e)
+        {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    /**
+    * Loads the interface (ports and generics) of every component
+    * @param lazyarch boolean if true, arch bodies are skipped without being tokenized
+    * @return long number of tokens scanned
+    */
+    private static long interfaces(List<CharSequence> units, boolean lazyarch)
+    {
+        long tokens = 0;
+        for (CharSequence unit : units)
+        {
+            TokenBuffer buffer = new TokenBuffer(new Lexer(unit), lazyarch);
+            Component component = new Component(new Parser(buffer, lazyarch).parse());
+            component.getPorts();
+            component.getGenerics();
+            tokens += buffer.size();
+        }
+        return tokens;
+    }
+
+    /**
+    * Builds a random dependency DAG: each edge goes from a component to one added after it
+    * @param names String[] vertex names
+    * @param edges int number of edges
+    */
+    private static Graph dependencies(String[] names, int edges)
+    {
+        Random random = new Random(1);
+        Graph graph = new Graph();
+        for (int e = 0; e < edges; e++)
+        {
+            int parent = random.nextInt(names.length - 1);
+            graph.addEdge(names[parent], names[parent + 1 + random.nextInt(Math.min(names.length - parent - 1, 1000))]);
+        }
+        return graph;
+    }
+
+    /**
+    * Gets the number of bytes all live threads (including the common pool's workers) have allocated so far
+    */
+    private static long allocated()
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+            total += Math.max(bytes, 0);
+        return total;
+    }
+
+    /**
+    * Measures the heap retained by a set of parsed components
+    * @return long bytes in use after a full collection
+    */
+    private static long retained(String source, boolean compact) throws java.io.IOException
+    {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        List<Component> components = new ArrayList<Component>();
+        ComponentReader reader = new ComponentReader(java.nio.channels.Channels.newChannel(new java.io.ByteArrayInputStream(source.getBytes())));
+        CharSequence unit;
+        while ((unit = reader.next()) != null)
+            components.add(new Component(unit, reader.line(), reader.col(), compact, false));
+        System.gc();
+        long after = runtime.totalMemory() - runtime.freeMemory();
+        if (components.isEmpty())
+            System.out.println("no components parsed");
+        return after - before;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        String phase = args.length > 0 ? args[0] : "lexer";
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        final String source = generate(size, 200);
+        System.out.println(String.format("%d components, %d chars", size, source.length()));
+        switch (phase)
+        {
+            case "lexer":
+                time("lexer scan", source.length(), () -> lex(source));
+                time("token buffer", source.length(), () -> new TokenBuffer(source));
+                break;
+            case "whitespace":
+                final String padded = pad(source);
+                final ByteCharSequence bytes = new ByteCharSequence(padded.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+                System.out.println(String.format("padded to %d chars", padded.length()));
+                time("scalar (String)", padded.length(), () -> lex(padded));
+                time("swar (byte[])", padded.length(), () -> lex(bytes));
+                break;
+            case "ast":
+                System.out.println(String.format("%-24s %10.1f MB", "Tree objects", retained(source, false) / 1e6));
+                System.out.println(String.format("%-24s %10.1f MB", "AstArena", retained(source, true) / 1e6));
+                break;
+            case "parser":
+                final List<TokenBuffer> buffers = tokenize(source);
+                time("parse components", source.length(), () -> parse(buffers));
+                final String wide = reduction(size * 500);
+                final List<TokenBuffer> widebuffers = tokenize(wide);
+                System.out.println(String.format("reduction of %d terms", size * 500));
+                time("parse reduction", wide.length(), () -> parse(widebuffers));
+                break;
+            case "frontend":
+                System.out.println(String.format("%d threads in the common pool", java.util.concurrent.ForkJoinPool.getCommonPoolParallelism()));
+                time("sequential", source.length(), () -> frontEndSequential(source));
+                time("fork/join", source.length(), () -> frontEndParallel(source));
+                break;
+            case "interface":
+                final List<CharSequence> units = new ArrayList<CharSequence>();
+                ComponentReader unitreader = reader(source);
+                CharSequence unit;
+                while ((unit = unitreader.next()) != null)
+                    units.add(unit);
+                System.out.println(String.format("tokens scanned: %d eager, %d lazy", interfaces(units, false), interfaces(units, true)));
+                time("eager arch", source.length(), () -> interfaces(units, false));
+                time("lazy arch", source.length(), () -> interfaces(units, true));
+                break;
+            case "incremental":
+                final IncrementalSource incremental = new IncrementalSource(source);
+                final int literal = source.indexOf("x\"0f\"", source.indexOf(String.format("component C%d", size / 2))) + 2;
+                final String[] digits = {"1f", "0f"};
+                final int[] edits = {0};
+                List<Component> before = incremental.getComponents();
+                incremental.edit(literal, 2, digits[edits[0]++ % 2]);
+                List<Component> after = incremental.getComponents();
+                int kept = 0;
+                for (int i = 0; i < before.size(); i++)
+                {
+                    if (before.get(i) == after.get(i))
+                        kept++;
+                }
+                System.out.println(String.format("one-literal edit: %d components reparsed, %d of %d kept", incremental.reparsed(), kept, after.size()));
+                time("full reparse", source.length(), () -> frontEndSequential(source));
+                time("incremental edit", source.length(), () -> incremental.edit(literal, 2, digits[edits[0]++ % 2]));
+                break;
+            case "verify":
+                final List<Component> parsed = Component.parseAll(reader(source), false, false);
+                new SemanticAnalyzer(parsed);
+                long allocatedBefore = allocated();
+                new SemanticAnalyzer(parsed);
+                System.out.println(String.format("%-24s %10.1f MB", "allocated per check", (allocated() - allocatedBefore) / 1e6));
+                time("semantic analysis", source.length(), () -> new SemanticAnalyzer(parsed));
+                final NameBinder binder = new NameBinder(new SemanticAnalyzer(parsed).getComponents());
+                System.out.println(String.format("%d threads in the common pool", java.util.concurrent.ForkJoinPool.getCommonPoolParallelism()));
+                time("verify sequential", source.length(), () -> parsed.forEach(component -> new ComponentVerifier(component, binder).verify()));
+                time("verify fork/join", source.length(), () -> ComponentVerifier.verifyAll(parsed, binder));
+                final String widearch = generate(1, size * 1000);
+                final List<Component> widecomponent = Component.parseAll(reader(widearch), false, false);
+                final NameBinder widebinder = new NameBinder(new SemanticAnalyzer(widecomponent).getComponents());
+                System.out.println(String.format("one arch of %d assignments", size * 1000));
+                time("verify wide arch", widearch.length(), () -> new ComponentVerifier(widecomponent.get(0), widebinder).verify());
+                break;
+            case "generate":
+                final VHDLGenerator gen = new VHDLGenerator(new SemanticAnalyzer(Component.parseAll(reader(source), false, false)));
+                final int vhdlLength = gen.getVHDL().length();
+                System.out.println(String.format("%d chars of VHDL", vhdlLength));
+                time("vhdl to string", vhdlLength, () -> gen.getVHDL());
+                time("vhdl streamed", vhdlLength, () ->
+                {
+                    try
+                    {
+                        gen.write(new java.io.BufferedWriter(java.io.Writer.nullWriter()));
+                    }
+                    catch (java.io.IOException e)
+                    {
+                        throw new java.io.UncheckedIOException(e);
+                    }
+                });
+                final VHDLGenerator wideports = new VHDLGenerator(new SemanticAnalyzer(instances(size * 10, 32)));
+                final int wideLength = wideports.getVHDL().length();
+                System.out.println(String.format("%d instances of a component with 64 ports", size * 10));
+                time("vhdl instances", wideLength, () -> wideports.getVHDL());
+                for (Instantiation instantiation : new Instantiation[] {Instantiation.COMPONENT_PER_TYPE, Instantiation.ENTITY})
+                {
+                    final VHDLGenerator compact = new VHDLGenerator(new SemanticAnalyzer(instances(size * 10, 32)), instantiation);
+                    final int compactLength = compact.getVHDL().length();
+                    System.out.println(String.format("%s: %d chars of VHDL, against %d with a declaration per instance", instantiation, compactLength, wideLength));
+                    time("vhdl instances (compact)", compactLength, () -> compact.getVHDL());
+                }
+                final java.nio.file.Path entities = java.nio.file.Files.createTempDirectory("cdl");
+                System.out.println(String.format("%d threads in the common pool", java.util.concurrent.ForkJoinPool.getCommonPoolParallelism()));
+                System.out.println(String.format("%d files written", gen.writeEntities(entities, java.nio.charset.StandardCharsets.US_ASCII)));
+                time("per-entity (unchanged)", vhdlLength, () ->
+                {
+                    try
+                    {
+                        if (gen.writeEntities(entities, java.nio.charset.StandardCharsets.US_ASCII) != 0)
+                            System.out.println("unchanged files rewritten");
+                    }
+                    catch (java.io.IOException e)
+                    {
+                        throw new java.io.UncheckedIOException(e);
+                    }
+                });
+                try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(entities))
+                {
+                    for (java.nio.file.Path file : (Iterable<java.nio.file.Path>) files::iterator)
+                        java.nio.file.Files.delete(file);
+                }
+                java.nio.file.Files.delete(entities);
+                break;
+            case "graph":
+                final String[] names = new String[size * 500];
+                for (int i = 0; i < names.length; i++)
+                    names[i] = "C" + i;
+                final int edges = size * 5000;
+                final Graph graph = dependencies(names, edges);
+                System.out.println(String.format("%d vertices, %d edges (%d distinct)", names.length, edges, graph.numEdges()));
+                time("build", 0, () -> dependencies(names, edges).numEdges());
+                time("tarjan scc", 0, () -> graph.acyclic());
+                time("kahn topological order", 0, () -> graph.topologicalOrder());
+                final String leaf = names[names.length - 1];
+                System.out.println(String.format("%d ancestors of %s", graph.ancestors(leaf).size(), leaf));
+                time("build + ancestors (cold)", 0, () -> dependencies(names, edges).ancestors(leaf));
+                time("ancestors (memoized)", 0, () -> graph.ancestors(leaf));
+                final List<String> changed = Arrays.asList(names[names.length / 2], names[names.length / 3], names[names.length / 4]);
+                time("affected roots (memoized)", 0, () -> graph.affectedRoots(changed));
+                final Graph chain = new Graph();
+                for (int i = 1; i < names.length; i++)
+                    chain.addEdge(names[i - 1], names[i]);
+                System.out.println(String.format("chain of %d components", names.length));
+                time("tarjan scc (chain)", 0, () -> chain.acyclic());
+                break;
+            default:
+                System.out.println("unknown phase " + phase);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ByteCharSequence.java - Reed Foster
+CharSequence view over a buffer of source bytes, so files can be lexed without decoding them into a String
+*/
+
+package com.foster.cdl;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+public class ByteCharSequence implements CharSequence
+{
+    // SWAR (SIMD within a register) constants: each byte lane of a long holds the same value
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW7 = 0x7f7f7f7f7f7f7f7fL;
+    private static final long SPACES = ' ' * ONES;
+    private static final long TABS = '\t' * ONES;
+    private static final long RETURNS = '\r' * ONES;
+    private static final long NEWLINES = '\n' * ONES;
+    // reads eight bytes of a byte[] as one little endian long
+    private static final VarHandle WORDS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final ByteBuffer buffer;
+    private final byte[] array; // backing array of buffer when it's on the heap (read directly to skip ByteBuffer bounds checks); null for mapped files
+    private final int offset; // offset of the first byte of buffer in array
+
+    /**
+    * Constructor
+    * @param buffer ByteBuffer holding ASCII/UTF-8 source; characters are read from its position to its limit.
+    * All CDL tokens are ASCII, so multi-byte UTF-8 sequences can only show up in comments, where each byte is skipped as its own character
+    */
+    ByteCharSequence(ByteBuffer buffer)
+    {
+        this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN); // little endian so byte lane i of a word is the byte at offset i
+        this.array = this.buffer.hasArray() ? this.buffer.array() : null;
+        this.offset = this.buffer.hasArray() ? this.buffer.arrayOffset() : 0;
+    }
+
+    ByteCharSequence(byte[] bytes)
+    {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+    * Maps a file read-only into memory
+    * @param file Path of file to map
+    * @return ByteCharSequence over the mapped contents of file
+    */
+    public static ByteCharSequence map(Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            return new ByteCharSequence(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int length()
+    {
+        return this.buffer.limit();
+    }
+
+    public char charAt(int index)
+    {
+        return (char) (this.get(index) & 0xff);
+    }
+
+    private byte get(int index)
+    {
+        return this.array != null ? this.array[this.offset + index] : this.buffer.get(index);
+    }
+
+    /**
+    * Reads the eight bytes starting at index as a word (byte lane i holds the byte at index + i)
+    */
+    private long word(int index)
+    {
+        return this.array != null ? (long) WORDS.get(this.array, this.offset + index) : this.buffer.getLong(index);
+    }
+
+    public CharSequence subSequence(int start, int end)
+    {
+        ByteBuffer view = this.buffer.duplicate();
+        view.position(start);
+        view.limit(end);
+        return new ByteCharSequence(view);
+    }
+
+    /**
+    * Flags the zero bytes of a word: the high bit of each byte lane is set iff that byte of word is 0.
+    * Exact (no false positives from borrows), so the result can be popcounted
+    */
+    private static long zeroBytes(long word)
+    {
+        return ~(((word & LOW7) + LOW7) | word | LOW7);
+    }
+
+    /**
+    * Flags the bytes of word equal to the byte repeated in each lane of pattern
+    */
+    private static long matchBytes(long word, long pattern)
+    {
+        return zeroBytes(word ^ pattern);
+    }
+
+    /**
+    * Flags the whitespace (space, tab, carriage return, newline) bytes of word
+    */
+    private static long spaceBytes(long word)
+    {
+        return matchBytes(word, SPACES) | matchBytes(word, TABS) | matchBytes(word, RETURNS) | matchBytes(word, NEWLINES);
+    }
+
+    /**
+    * Converts a lane mask to the index of its first flagged byte
+    */
+    private static int firstLane(long mask)
+    {
+        return Long.numberOfTrailingZeros(mask) >>> 3;
+    }
+
+    private static boolean isSpace(int b)
+    {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    /**
+    * Finds the next occurrence of a character, eight bytes at a time
+    * @param c char to search for (must be ASCII)
+    * @param from int index to start searching at
+    * @param end int index to stop searching at (exclusive; at most length()), e.g. the end of a lexer's region
+    * @return int index of the first c in [from, end), or end if there is none
+    */
+    public int indexOf(char c, int from, int end)
+    {
+        long pattern = c * ONES;
+        int i = from;
+        for (; i + 8 <= end; i += 8)
+        {
+            long mask = matchBytes(this.word(i), pattern);
+            if (mask != 0)
+                return i + firstLane(mask);
+        }
+        for (; i < end; i++)
+        {
+            if (this.get(i) == c)
+                return i;
+        }
+        return end;
+    }
+
+    /**
+    * Skips a run of whitespace eight bytes at a time
+    * @param from int index to start at
+    * @param end int index to stop at (exclusive; at most length())
+    * @return int index of the first non-whitespace byte in [from, end), or end if there is none
+    */
+    public int skipSpaces(int from, int end)
+    {
+        int i = from;
+        for (; i + 8 <= end; i += 8)
+        {
+            long mask = ~spaceBytes(this.word(i)) & ~LOW7;
+            if (mask != 0)
+                return i + firstLane(mask);
+        }
+        for (; i < end; i++)
+        {
+            if (!isSpace(this.get(i)))
+                return i;
+        }
+        return end;
+    }
+
+    /**
+    * Counts newlines in a range, eight bytes at a time
+    * @param from int start of the range (inclusive)
+    * @param to int end of the range (exclusive)
+    * @return int number of newline bytes in [from, to)
+    */
+    public int countNewlines(int from, int to)
+    {
+        int count = 0;
+        int i = from;
+        for (; i + 8 <= to; i += 8)
+            count += Long.bitCount(matchBytes(this.word(i), NEWLINES));
+        for (; i < to; i++)
+        {
+            if (this.get(i) == '\n')
+                count++;
+        }
+        return count;
+    }
+
+    public String toString()
+    {
+        byte[] bytes = new byte[this.buffer.limit()];
+        this.buffer.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
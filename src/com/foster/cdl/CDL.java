@@ -1,52 +1,98 @@
 /*
 CDL.java - Reed Foster
-Main class, reads source from files and writes to terminal for output
+Main class, streams source in from files and writes the generated VHDL to the output file (or one file per component)
 */
 
 package com.foster.cdl;
 
 import java.util.*;
 import java.nio.file.*;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.util.concurrent.ForkJoinTask;
 import java.io.*;
 
 public class CDL
 {
-    private static String readFile(String filename) throws IOException
+    private static final Set<String> OPTIONS = new HashSet<String>(Arrays.asList(new String[] {
+        "--compact-ast", // store each component's AST in an AstArena instead of Tree objects
+        "--lazy-arch", // parse arch bodies only when they're needed
+        "--per-entity", // treat the destination as a directory, and write each component to its own <name>.vhd file there
+        "--declare-once", // declare each component type once per architecture, instead of once per instance
+        "--entity-instantiation" // instantiate subcomponents directly (entity work.<name>), without component declarations
+    }));
+
+    /**
+    * Streams a source file in component by component, handing each one off to be parsed as soon as it has been read
+    * @param filename String path of the source file
+    * @param tasks List to add the parse task of each component to
+    * @param options Set of command line options
+    */
+    private static void readComponents(String filename, List<ForkJoinTask<Component>> tasks, Set<String> options) throws IOException
     {
-        byte[] encoded = Files.readAllBytes(Paths.get(filename));
-        return new String(encoded, Charset.defaultCharset());
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ))
+        {
+            Component.submitAll(new ComponentReader(channel), options.contains("--compact-ast"), options.contains("--lazy-arch"), tasks);
+        }
     }
 
-    private static void writeFile(String filename, String contents) throws IOException
+    /**
+    * Streams the generated VHDL to the output file through a buffered writer, so the whole output is never held in memory.
+    * The file is only rewritten if its contents change (see FileUpdateStream)
+    * @param filename String path of the output file
+    * @param gen VHDLGenerator to generate the VHDL with
+    */
+    private static void writeFile(String filename, VHDLGenerator gen) throws IOException
     {
-        List<String> lines = Arrays.asList(contents.split("\n"));
-        Path file = Paths.get(filename);
-        Files.write(file, lines, Charset.defaultCharset());//, StandardOpenOption.TRUNCATE_EXISTING);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileUpdateStream(Paths.get(filename)), Charset.defaultCharset())))
+        {
+            gen.write(writer);
+        }
     }
 
     public static void main(String[] args)
     {
-        if (args.length < 1)
+        // options (--name) may appear anywhere; the remaining arguments are the destination followed by the sources
+        Set<String> options = new HashSet<String>();
+        List<String> positional = new ArrayList<String>();
+        for (String arg : args)
+        {
+            if (arg.startsWith("--"))
+                options.add(arg);
+            else
+                positional.add(arg);
+        }
+        for (String option : options)
+        {
+            if (!OPTIONS.contains(option))
+            {
+                System.out.println(String.format("Unknown option %s", option));
+                return;
+            }
+        }
+        if (options.contains("--declare-once") && options.contains("--entity-instantiation"))
+        {
+            System.out.println("Options --declare-once and --entity-instantiation can't be used together");
+            return;
+        }
+        if (positional.size() < 1)
         {
             System.out.println("Please supply a destination");
             return;
         }
-        String[] sourceFiles = new String[args.length - 1];
-        String dest = args[0];
-        for (int i = 1; i < args.length; i++)
-            sourceFiles[i - 1] = args[i];
-        if (sourceFiles.length < 1)
+        String dest = positional.get(0);
+        List<String> sourceFiles = positional.subList(1, positional.size());
+        if (sourceFiles.size() < 1)
         {
             System.out.println("Please supply at least one source");
             return;
         }
-        String source = "";
+        List<ForkJoinTask<Component>> tasks = new ArrayList<ForkJoinTask<Component>>(); // components of every file are parsed in parallel
         for (String sourceFile : sourceFiles)
         {
             try
             {
-                source += readFile(sourceFile) + "\n";
+                readComponents(sourceFile, tasks, options);
             }
             catch (IOException e)
             {
@@ -54,11 +100,19 @@ public class CDL
                 return;
             }
         }
-        VHDLGenerator gen = new VHDLGenerator(source);
-        String output = gen.getVHDL();
+        List<Component> components = Component.joinAll(tasks);
+        Instantiation instantiation = Instantiation.COMPONENT_PER_INSTANCE;
+        if (options.contains("--declare-once"))
+            instantiation = Instantiation.COMPONENT_PER_TYPE;
+        else if (options.contains("--entity-instantiation"))
+            instantiation = Instantiation.ENTITY;
+        VHDLGenerator gen = new VHDLGenerator(new SemanticAnalyzer(components), instantiation);
         try
         {
-            writeFile(dest, output);
+            if (options.contains("--per-entity"))
+                gen.writeEntities(Paths.get(dest), Charset.defaultCharset());
+            else
+                writeFile(dest, gen);
         }
         catch (IOException e)
         {
@@ -0,0 +1,103 @@
+/*
+CdlType.java - Reed Foster
+Immutable, interned type of a CDL value: a Datatype, plus the width of a vector when it's known at compile time.
+Types are interned, so two types are the same exactly when they're the same object
+*/
+
+package com.foster.cdl;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class CdlType
+{
+    public static final int UNKNOWN = -1; // width of vectors whose width isn't known (e.g. it depends on a generic), and of non-vectors
+
+    public static final CdlType INT = new CdlType(Datatype.INT, UNKNOWN);
+    public static final CdlType BOOL = new CdlType(Datatype.BOOL, UNKNOWN);
+    public static final CdlType VEC = new CdlType(Datatype.VEC, UNKNOWN); // vector of unknown width
+
+    private static final ConcurrentHashMap<Integer, CdlType> VECTORS = new ConcurrentHashMap<Integer, CdlType>();
+
+    public final Datatype datatype;
+    public final int width; // bits, or UNKNOWN
+
+    private CdlType(Datatype datatype, int width)
+    {
+        this.datatype = datatype;
+        this.width = width;
+    }
+
+    /**
+    * Gets the type of a data type, with no width
+    * @return CdlType, or null if datatype is null
+    */
+    public static CdlType of(Datatype datatype)
+    {
+        if (datatype == null)
+            return null;
+        switch (datatype)
+        {
+            case INT:
+                return INT;
+            case BOOL:
+                return BOOL;
+            default:
+                return VEC;
+        }
+    }
+
+    /**
+    * Gets the type of a vector
+    * @param width int number of bits, or UNKNOWN
+    */
+    public static CdlType vec(int width)
+    {
+        if (width < 0)
+            return VEC;
+        return VECTORS.computeIfAbsent(width, w -> new CdlType(Datatype.VEC, w));
+    }
+
+    /**
+    * Gets the declared type of a GENDEC, PORT, SIGDEC, or CONST node, or the type of a LITERAL node.
+    * A declared vector's width is known when it's given as a decimal literal
+    * @return CdlType, or null for nodes without a type
+    */
+    public static CdlType of(Tree node)
+    {
+        if (node.datatype != Datatype.VEC)
+            return of(node.datatype);
+        if (node.nodetype == Nodetype.LITERAL)
+        {
+            int digits = node.attributes.get("value").length();
+            return vec(node.literal == Tokentype.HEXVECLITERAL ? 4 * digits : digits);
+        }
+        return node.numChildren() > 0 ? vec(intValue(node.getChild(0))) : VEC;
+    }
+
+    /**
+    * Gets the value of a decimal integer literal
+    * @return int value, or UNKNOWN if node isn't one
+    */
+    public static int intValue(Tree node)
+    {
+        if (node.nodetype != Nodetype.LITERAL || node.literal != Tokentype.DECINTLITERAL)
+            return UNKNOWN;
+        try
+        {
+            return Integer.parseInt(node.attributes.get("value"));
+        }
+        catch (NumberFormatException e)
+        {
+            return UNKNOWN; // too big to be a width
+        }
+    }
+
+    /**
+    * Returns the CDL keyword of the data type, so error messages read the same as the source
+    */
+    @Override
+    public String toString()
+    {
+        return this.datatype.toString();
+    }
+}
@@ -5,55 +5,240 @@ Class for storage of component information
 
 package com.foster.cdl;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class Component
 {
+    private static final int PARSEWINDOW = 4 * Math.max(1, ForkJoinPool.getCommonPoolParallelism()); // most components submitAll has read but not yet seen parsed
     public static final Set<Nodetype> DECLAREDIDENTIFIERNODES = new HashSet<Nodetype>(Arrays.asList(new Nodetype[] {Nodetype.PORT, Nodetype.GENDEC, Nodetype.SIGDEC, Nodetype.CONST, Nodetype.COMPDEC}));
 
     public final String name;
     public final Tree ast;
+    private final AstArena arena; // compact storage backing ast, or null if ast is a plain Tree
     private Map<Nodetype, Set<DeclaredIdentifier>> declaredIdentifiers; // each map of maps maps names of declared identifiers (keys) to their attributes (values; from ast)
+    private final Map<Nodetype, Map<Integer, DeclaredIdentifier>> index; // declared identifiers of each kind by SymbolTable id
+    private final Map<Integer, DeclaredIdentifier> scope; // signals, ports, generics and constants (everything an IDENTIFIER can refer to) by SymbolTable id
+    private final List<LazyArch> unindexed; // arch bodies that haven't been parsed yet, so their declarations aren't in declaredIdentifiers
+    private volatile boolean indexed; // true once unindexed is empty; read without the lock, so parallel lookups don't contend for it
+    private Error indexError; // SyntaxError or NameError that stopped indexArchs, rethrown by every later lookup
 
-    Component(String source)
+    Component(CharSequence source)
     {
-        Parser p = new Parser(new Lexer(source));
-        this.ast = p.parse();
+        this(source, 0);
+    }
+
+    /**
+    * Constructor for a component read out of a larger file
+    * @param source CharSequence source of the component definition
+    * @param line int line of the file on which source starts (for error messages)
+    */
+    Component(CharSequence source, int line)
+    {
+        this(source, line, false);
+    }
+
+    /**
+    * @param compact boolean if true, the parsed tree is flattened into an AstArena and ast is a read-only view of it
+    */
+    Component(CharSequence source, int line, boolean compact)
+    {
+        this(source, line, compact, false);
+    }
+
+    /**
+    * @param lazyarch boolean if true, only the component's interface (generics and ports) is parsed up front;
+    * arch bodies are parsed the first time they, or the signals, constants, or subcomponents declared in them, are needed
+    */
+    Component(CharSequence source, int line, boolean compact, boolean lazyarch)
+    {
+        this(source, line, 0, compact, lazyarch);
+    }
+
+    /**
+    * @param col int column of the file on which source starts (ComponentReader drops the indentation in front of a component)
+    */
+    Component(CharSequence source, int line, int col, boolean compact, boolean lazyarch)
+    {
+        this(new Parser(new TokenBuffer(new Lexer(source, 0, source.length(), line, col), lazyarch), lazyarch).parse(), compact);
+    }
+
+    Component(Tree ast)
+    {
+        this(ast, false);
+    }
+
+    Component(Tree ast, boolean compact)
+    {
+        this.arena = compact ? AstArena.compact(ast) : null;
+        this.ast = compact ? this.arena.root() : ast;
         this.name = this.ast.attributes.get("name");
+        this.unindexed = new ArrayList<LazyArch>();
         this.declaredIdentifiers = new HashMap<Nodetype, Set<DeclaredIdentifier>>();
+        this.index = new EnumMap<Nodetype, Map<Integer, DeclaredIdentifier>>(Nodetype.class);
+        this.scope = new HashMap<Integer, DeclaredIdentifier>();
         for (Nodetype n : DECLAREDIDENTIFIERNODES)
-            this.declaredIdentifiers.put(n, new HashSet<DeclaredIdentifier>());
-        this.getIdentifiers(ast);
+        {
+            this.declaredIdentifiers.put(n, new LinkedHashSet<DeclaredIdentifier>());
+            this.index.put(n, new HashMap<Integer, DeclaredIdentifier>());
+        }
+        this.getIdentifiers(this.ast);
+        this.indexed = this.unindexed.isEmpty();
+    }
+
+    /**
+    * Reads every component out of a stream and parses them in parallel on the common ForkJoinPool
+    * @param reader ComponentReader to read components from
+    * @param compact boolean if true, each component's AST is stored in a compact AstArena
+    * @param lazyarch boolean if true, arch bodies are only parsed when they're needed
+    * @return List of parsed components, in source order
+    */
+    public static List<Component> parseAll(ComponentReader reader, boolean compact, boolean lazyarch) throws IOException
+    {
+        List<ForkJoinTask<Component>> tasks = new ArrayList<ForkJoinTask<Component>>();
+        submitAll(reader, compact, lazyarch, tasks);
+        return joinAll(tasks);
+    }
+
+    /**
+    * Fork/join task that parses one component. It drops its source once it has run, so that finished tasks waiting to
+    * be joined don't keep their components' bytes alive
+    */
+    private static class Parse extends RecursiveTask<Component>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private CharSequence source;
+        private final int line;
+        private final int col;
+        private final boolean compact;
+        private final boolean lazyarch;
+
+        Parse(CharSequence source, int line, int col, boolean compact, boolean lazyarch)
+        {
+            this.source = source;
+            this.line = line;
+            this.col = col;
+            this.compact = compact;
+            this.lazyarch = lazyarch;
+        }
+
+        @Override
+        protected Component compute()
+        {
+            CharSequence source = this.source;
+            this.source = null;
+            return new Component(source, this.line, this.col, this.compact, this.lazyarch);
+        }
+    }
+
+    /**
+    * Reads every component out of a stream, submitting each one to the common ForkJoinPool to be parsed.
+    * The reader splits the stream on the calling thread while earlier components are already being parsed, but it waits
+    * whenever PARSEWINDOW components are in flight, so when reading outpaces parsing, the source held in memory stays
+    * bounded by PARSEWINDOW components rather than growing with the file
+    * @param tasks List to add a parse task for each component to (every task in it but the last PARSEWINDOW must have been joined)
+    * @throws SyntaxError or NameError of the first component that failed to parse, if it fails before reading finishes
+    */
+    public static void submitAll(ComponentReader reader, boolean compact, boolean lazyarch, List<ForkJoinTask<Component>> tasks) throws IOException
+    {
+        int oldest = Math.max(0, tasks.size() - PARSEWINDOW); // every task before this one has been joined
+        CharSequence source;
+        while ((source = reader.next()) != null)
+        {
+            while (tasks.size() - oldest >= PARSEWINDOW)
+                tasks.get(oldest++).join();
+            tasks.add(ForkJoinPool.commonPool().submit(new Parse(source, reader.line(), reader.col(), compact, lazyarch)));
+        }
+    }
+
+    /**
+    * Waits for parse tasks to finish
+    * @return List of parsed components, in the order the tasks were submitted
+    * @throws SyntaxError or NameError of the first component (in submission order) that failed to parse
+    */
+    public static List<Component> joinAll(List<ForkJoinTask<Component>> tasks)
+    {
+        List<Component> components = new ArrayList<Component>(tasks.size());
+        for (ForkJoinTask<Component> task : tasks)
+            components.add(task.join());
+        return components;
     }
 
     /**
     * Initializes signals, ports, generics, and subcomponents class fields.
     * These fields are used to verify that all identifiers that are used are signals, ports, or generics, and that types are usec properly
+    * Declarations only appear directly under the component, port, and arch blocks, so assignments and other expressions
+    * (which can be arbitrarily deep) aren't descended into
     * @param node current node of component AST. when called this should be the root node of type Nodetype.COMPONENT
     * @throws NameError when an identifier is declared more than once
     */
     private void getIdentifiers(Tree node) throws NameError
     {
-        if (DECLAREDIDENTIFIERNODES.contains(node.nodetype))
+        if (node instanceof LazyArch && !((LazyArch) node).isParsed())
+            this.unindexed.add((LazyArch) node);
+        else if (DECLAREDIDENTIFIERNODES.contains(node.nodetype))
         {
-            Set<DeclaredIdentifier> declarations = this.declaredIdentifiers.get(node.nodetype);
-            for (DeclaredIdentifier declaration : declarations)
-            {
-                if (declaration.name.equals(node.attributes.get("name")))
-                    throw new NameError(String.format("(%s) declared multiple times", node.attributes.get("name")));
-            }
-            declarations.add(new DeclaredIdentifier(node));
-            this.declaredIdentifiers.put(node.nodetype, declarations);
+            DeclaredIdentifier declaration = new DeclaredIdentifier(node);
+            if (this.index.get(node.nodetype).putIfAbsent(declaration.symbol, declaration) != null)
+                throw new NameError(String.format("(%s) declared multiple times", node.attributes.get("name")));
+            this.declaredIdentifiers.get(node.nodetype).add(declaration);
+            if (node.nodetype != Nodetype.COMPDEC)
+                this.scope.putIfAbsent(declaration.symbol, declaration);
         }
-        else
+        else if (node.nodetype == Nodetype.COMPONENT || node.nodetype == Nodetype.PORTDEC || node.nodetype == Nodetype.ARCH)
         {
-            for (Tree child : node.getChildren())
+            for (Tree child : node.childList())
                 this.getIdentifiers(child);
         }
     }
 
+    /**
+    * Parses any arch bodies that were skipped and adds their declarations to declaredIdentifiers.
+    * An arch is only taken off unindexed once all its declarations are in, and a failure is kept and rethrown by every
+    * later call, so no lookup (on this thread or another) ever sees a partial index
+    * @throws SyntaxError if an arch body doesn't parse
+    * @throws NameError if an arch body declares an identifier that's already declared
+    */
+    private void indexArchs()
+    {
+        if (this.indexed)
+            return;
+        synchronized (this)
+        {
+            if (this.indexError != null)
+                throw this.indexError;
+            try
+            {
+                while (!this.unindexed.isEmpty())
+                {
+                    for (Tree child : this.unindexed.get(0).childList())
+                        this.getIdentifiers(child);
+                    this.unindexed.remove(0);
+                }
+            }
+            catch (SyntaxError | NameError e)
+            {
+                this.indexError = e;
+                throw e;
+            }
+            this.indexed = true;
+        }
+    }
+
+    /**
+    * Accessor method for the compact AST
+    * @return AstArena backing this.ast, or null if the component wasn't compacted
+    */
+    public AstArena getArena()
+    {
+        return this.arena;
+    }
+
     public Set<DeclaredIdentifier> getSignals()
     {
+        this.indexArchs();
         return this.declaredIdentifiers.get(Nodetype.SIGDEC);
     }
 
@@ -69,19 +254,58 @@ public class Component
 
     public Set<DeclaredIdentifier> getConstants()
     {
+        this.indexArchs();
         return this.declaredIdentifiers.get(Nodetype.CONST);
     }
 
     public Set<DeclaredIdentifier> getSubcomponents()
     {
+        this.indexArchs();
         return this.declaredIdentifiers.get(Nodetype.COMPDEC);
     }
 
+    /**
+    * Looks up the signal, port, generic, or constant an identifier refers to
+    * @param symbol int SymbolTable id of the identifier
+    * @return DeclaredIdentifier declaration of the identifier, or null if it isn't declared in this component
+    */
+    public DeclaredIdentifier lookup(int symbol)
+    {
+        this.indexArchs();
+        return this.scope.get(symbol);
+    }
+
+    /**
+    * @return DeclaredIdentifier declaration of the port, or null if the component has no such port
+    */
+    public DeclaredIdentifier getPort(int symbol)
+    {
+        return this.index.get(Nodetype.PORT).get(symbol);
+    }
+
+    /**
+    * @return DeclaredIdentifier declaration of the generic, or null if the component has no such generic
+    */
+    public DeclaredIdentifier getGeneric(int symbol)
+    {
+        return this.index.get(Nodetype.GENDEC).get(symbol);
+    }
+
+    /**
+    * @return DeclaredIdentifier declaration of the subcomponent instance, or null if the component has no such instance
+    */
+    public DeclaredIdentifier getSubcomponent(int symbol)
+    {
+        this.indexArchs();
+        return this.index.get(Nodetype.COMPDEC).get(symbol);
+    }
+
     public Map<Nodetype, Set<DeclaredIdentifier>> getDeclaredIdentifiers()
     {
+        this.indexArchs();
         Map<Nodetype, Set<DeclaredIdentifier>> declaredIDs = new HashMap<Nodetype, Set<DeclaredIdentifier>>();
         for (Nodetype n : DECLAREDIDENTIFIERNODES)
-            declaredIDs.put(n , new HashSet<DeclaredIdentifier>(this.declaredIdentifiers.get(n)));
+            declaredIDs.put(n , new LinkedHashSet<DeclaredIdentifier>(this.declaredIdentifiers.get(n)));
         return declaredIDs;
     }
 
@@ -90,13 +314,13 @@ public class Component
         String s = "Component: " + this.ast.attributes.get("name");
         s += String.format("\n  Tree:\n    %s\n  Signals:", this.ast.visit(2));
         for (DeclaredIdentifier signal : this.getSignals())
-            s += String.format("\n    name: %s, type: %s", signal.name, signal.type) + (signal.type.equals("vec") ? String.format(", width : %s", signal.declaration.attributes.get("width")) : "");
+            s += String.format("\n    name: %s, type: %s", signal.name, signal.type) + (signal.datatype == Datatype.VEC ? String.format(", width : %s", signal.declaration.attributes.get("width")) : "");
         s += "\n  Generics:";
         for (DeclaredIdentifier generic : this.getGenerics())
-            s += String.format("\n    name: %s, type: %s", generic.name, generic.type) + (generic.type.equals("vec") ? String.format(", width : %s", generic.declaration.attributes.get("width")) : "");
+            s += String.format("\n    name: %s, type: %s", generic.name, generic.type) + (generic.datatype == Datatype.VEC ? String.format(", width : %s", generic.declaration.attributes.get("width")) : "");
         s += "\n  Ports:";
         for (DeclaredIdentifier port : this.getPorts())
-            s += String.format("\n    name: %s, type: %s, direction: %s", port.name, port.type, port.declaration.attributes.get("direction")) + (port.type.equals("vec") ? String.format(", width : %s", port.declaration.attributes.get("width")) : "");
+            s += String.format("\n    name: %s, type: %s, direction: %s", port.name, port.type, port.declaration.attributes.get("direction")) + (port.datatype == Datatype.VEC ? String.format(", width : %s", port.declaration.attributes.get("width")) : "");
         s += "\n  Subcomponents:";
         for (DeclaredIdentifier subcomponent : this.getSubcomponents())
             s += String.format("\n    name: %s, type: %s", subcomponent.name, subcomponent.type);
@@ -108,5 +332,24 @@ public class Component
         String source = "component C1{vec[3] gen;port{input vec[3] foo; input int za; input bool re; output int bar;}arch{signal bool banana; C2 monkey = new C2();}}";
         Component c = new Component(source);
         System.out.println(c);
+        // a component read out of a file reports the same positions as the whole file does, even when it's indented
+        String indented = "    component B{port{input bool p;}arch{signal bool e; e <= p p;}}";
+        String file = "component A{arch{}}\n\n" + indented;
+        String expected = String.format("at col %d on line 3.", indented.indexOf("p p;") + 3); // (columns in errors are 1-based)
+        String actual = null;
+        try
+        {
+            parseAll(new ComponentReader(java.nio.channels.Channels.newChannel(new java.io.ByteArrayInputStream(file.getBytes()))), false, false);
+        }
+        catch (SyntaxError e)
+        {
+            actual = e.getMessage();
+        }
+        catch (IOException e)
+        {
+            throw new java.io.UncheckedIOException(e); // can't happen reading from memory
+        }
+        if (actual == null || !actual.contains(expected))
+            System.out.println(String.format("position of an error in an indented component: expected (%s), got (%s)", expected, actual));
     }
 }
\ No newline at end of file
@@ -0,0 +1,253 @@
+/*
+ComponentReader.java - Reed Foster
+Splits a stream of CDL source into one chunk per component, reading through a fixed-size buffer
+so that only the component currently being read is held in memory
+*/
+
+package com.foster.cdl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.*;
+
+public class ComponentReader
+{
+    public static final int DEFAULTBUFFERSIZE = 1 << 16;
+
+    // scanner states; braces only count in CODE
+    private static final int CODE = 0, SLASH = 1, LINECOMMENT = 2, BLOCKCOMMENT = 3, BLOCKSTAR = 4, VECTOR = 5;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer; // fixed-size refill buffer
+    private boolean eof;
+
+    private byte[] unit; // bytes of the component currently being read
+    private int unitsize;
+    private int state;
+    private int depth; // brace nesting depth
+    private int line; // current line in the stream
+    private int col; // current column (bytes since the last newline) in the stream
+    private int unitline; // line the most recently returned component starts on
+    private int unitcol; // column its first byte is on
+    private long offset; // current offset in the stream
+    private long unitoffset; // offset of the first byte of the most recently returned component
+    private boolean unitclosed; // whether the most recently returned component was closed by its brace
+    private boolean started; // whether the first byte of the next component has been seen
+
+    /**
+    * Constructor
+    * @param channel ReadableByteChannel to read source from
+    * @param buffersize int size of the refill buffer in bytes
+    */
+    ComponentReader(ReadableByteChannel channel, int buffersize)
+    {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(buffersize);
+        this.buffer.flip(); // start out empty
+        this.eof = false;
+        this.unit = new byte[256];
+        this.unitsize = 0;
+        this.state = CODE;
+        this.depth = 0;
+        this.line = 0;
+        this.col = 0;
+        this.offset = 0;
+    }
+
+    ComponentReader(ReadableByteChannel channel)
+    {
+        this(channel, DEFAULTBUFFERSIZE);
+    }
+
+    /**
+    * Get the line (0-based) of the stream on which the most recently returned component starts
+    */
+    public int line()
+    {
+        return this.unitline;
+    }
+
+    /**
+    * Get the column (0-based) of the first byte of the most recently returned component; leading whitespace isn't part of
+    * the component, so this is needed (with line()) to lex it with the same positions as the whole file
+    */
+    public int col()
+    {
+        return this.unitcol;
+    }
+
+    /**
+    * Get the offset in the stream of the first byte of the most recently returned component
+    */
+    public long offset()
+    {
+        return this.unitoffset;
+    }
+
+    /**
+    * Get the offset in the stream just past the end of the most recently returned component
+    */
+    public long end()
+    {
+        return this.offset;
+    }
+
+    /**
+    * Returns true if the most recently returned component was closed by its brace (rather than cut off by the end of the stream)
+    */
+    public boolean complete()
+    {
+        return this.unitclosed;
+    }
+
+    /**
+    * Refills the buffer from the channel
+    * @return false if the channel is exhausted and the buffer is empty
+    */
+    private boolean fill() throws IOException
+    {
+        while (!this.buffer.hasRemaining())
+        {
+            if (this.eof)
+                return false;
+            this.buffer.clear();
+            int read = this.channel.read(this.buffer);
+            this.buffer.flip();
+            if (read == -1)
+                this.eof = true;
+        }
+        return true;
+    }
+
+    private void append(byte b)
+    {
+        if (this.unitsize == this.unit.length)
+            this.unit = Arrays.copyOf(this.unit, this.unitsize * 2);
+        this.unit[this.unitsize++] = b;
+    }
+
+    /**
+    * Starts a new component at the current position of the stream
+    * @param line int line the component starts on
+    * @param col int column of the component's first byte
+    * @param offset long offset in the stream of the component's first byte
+    */
+    private void start(int line, int col, long offset)
+    {
+        this.unitsize = 0;
+        this.unitline = line;
+        this.unitcol = col;
+        this.unitoffset = offset;
+        this.started = true;
+    }
+
+    /**
+    * Processes one byte of code (outside of comments and vector literals)
+    * @param b byte to process
+    * @return true if b closes the component being read
+    */
+    private boolean code(byte b)
+    {
+        switch (b)
+        {
+            case '/':
+                this.state = SLASH;
+                return false;
+            case '"':
+                this.state = VECTOR;
+                break;
+            case '{':
+                this.depth++;
+                break;
+            case '}':
+                this.depth--;
+                break;
+            case ' ': case '\t': case '\r': case '\n':
+                return false;
+        }
+        if (!this.started)
+        {
+            this.start(this.line, this.col, this.offset);
+            this.append(b);
+        }
+        return this.depth == 0 && b == '}';
+    }
+
+    /**
+    * Reads the next component: everything from its first token through the brace that closes its body.
+    * Whitespace and comments between components are dropped; braces inside comments and vector literals are ignored.
+    * Comments inside a component are kept so the lexer reports the same lines and columns as it would on the whole file
+    * @return ByteCharSequence of the component's source, or null if the stream holds no more components
+    */
+    public ByteCharSequence next() throws IOException
+    {
+        this.started = false;
+        while (this.fill())
+        {
+            byte b = this.buffer.get();
+            if (this.started)
+                this.append(b);
+            boolean closed = false;
+            switch (this.state)
+            {
+                case CODE:
+                    closed = this.code(b);
+                    break;
+                case SLASH:
+                    if (b == '/')
+                        this.state = LINECOMMENT;
+                    else if (b == '*')
+                        this.state = BLOCKCOMMENT;
+                    else
+                    {
+                        // lone slash (division) rather than a comment
+                        this.state = CODE;
+                        if (!this.started)
+                        {
+                            this.start(this.line, this.col - 1, this.offset - 1); // (line and col are still those of b, right after the slash)
+                            this.append((byte) '/');
+                            this.append(b);
+                        }
+                        closed = this.code(b);
+                    }
+                    break;
+                case LINECOMMENT:
+                    if (b == '\n')
+                        this.state = CODE;
+                    break;
+                case BLOCKCOMMENT:
+                    if (b == '*')
+                        this.state = BLOCKSTAR;
+                    break;
+                case BLOCKSTAR:
+                    if (b == '/')
+                        this.state = CODE;
+                    else if (b != '*')
+                        this.state = BLOCKCOMMENT;
+                    break;
+                case VECTOR:
+                    if (b == '"')
+                        this.state = CODE;
+                    break;
+            }
+            if (b == '\n')
+            {
+                this.line++;
+                this.col = 0;
+            }
+            else
+                this.col++;
+            this.offset++;
+            if (closed)
+            {
+                this.unitclosed = true;
+                return new ByteCharSequence(Arrays.copyOf(this.unit, this.unitsize));
+            }
+        }
+        this.unitclosed = false;
+        if (this.started)
+            return new ByteCharSequence(Arrays.copyOf(this.unit, this.unitsize)); // unterminated component; let the parser report it
+        return null;
+    }
+}
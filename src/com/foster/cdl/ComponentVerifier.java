@@ -0,0 +1,538 @@
+/*
+ComponentVerifier.java - Reed Foster
+Verifies one component in a single post-order traversal of its AST, fusing what used to be four separate walks:
+duplicate port/arch declarations, name binding, constant expressions, and expression types.
+The type of each expression is cached on its node, so checking a parent reads its children's types instead of recomputing them
+*/
+
+package com.foster.cdl;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+class ComponentVerifier
+{
+    // how constant an expression is; an expression is as constant as its least constant operand
+    private static final int VARIABLE = 0; // uses a signal, port, constant, or subcomponent port
+    private static final int GENERIC = 1; // uses generics, but nothing else that isn't a literal
+    private static final int LITERAL = 2; // only literals
+    private static final int OPERATION = -1; // not known until the operands have been checked
+
+    // arch bodies with more statements than this are split in half (recursively) and the halves checked in parallel
+    private static final int SPLIT = 2048;
+
+    private final Component component;
+    private final NameBinder binder;
+    private boolean hasPortDec;
+    private boolean hasArchDec;
+
+    // first error of each check. The checks used to run one after another, so when a component has several errors,
+    // the one reported is the first error of the earliest check that found any
+    private NameError nameError;
+    private TypeError constantError;
+    private TypeError typeError;
+
+    /**
+    * Constructor
+    * @param component Component to verify
+    * @param binder NameBinder for resolving references (shared, it only reads the components)
+    */
+    ComponentVerifier(Component component, NameBinder binder)
+    {
+        this.component = component;
+        this.binder = binder;
+    }
+
+    /**
+    * Verifies the component:
+    *  + check there's at most one port and one arch declaration
+    *  + check all identifiers used are declared (binding each one to its declaration)
+    *  + check all expressions in declarations use generics or constants
+    *  + check types for all expressions are valid
+    * @throws PortError, ArchError, NameError, or TypeError for the first problem found
+    */
+    public void verify()
+    {
+        this.statement(this.component.ast);
+        if (this.nameError != null)
+            throw this.nameError;
+        if (this.constantError != null)
+            throw this.constantError;
+        if (this.typeError != null)
+            throw this.typeError;
+    }
+
+    /**
+    * Verifies components in parallel on the common ForkJoinPool. Each verifier is confined to its task and only writes
+    * to its own component's tree; other components are only read (their ports and generics)
+    * @param components List of components to verify
+    * @param binder NameBinder over every component
+    * @throws the error of the first component in the list that has one, regardless of which task finishes first
+    */
+    public static void verifyAll(List<Component> components, NameBinder binder)
+    {
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(components.size());
+        for (Component component : components)
+            tasks.add(ForkJoinPool.commonPool().submit(new ComponentVerifier(component, binder)::verify));
+        for (ForkJoinTask<?> task : tasks)
+            task.join();
+    }
+
+    /**
+    * Fork/join task that verifies a range of an arch body's statements, splitting it while it's longer than SPLIT.
+    * Each leaf records its errors in its own verifier, and the halves are merged in order, so the errors reported
+    * are the same as if the statements had been checked one after another
+    */
+    private static class Statements extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final ComponentVerifier parent;
+        private final List<Tree> statements;
+        private final int from;
+        private final int to;
+        private ComponentVerifier result; // errors found in the range
+
+        Statements(ComponentVerifier parent, List<Tree> statements, int from, int to)
+        {
+            this.parent = parent;
+            this.statements = statements;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (this.to - this.from <= SPLIT)
+            {
+                this.result = new ComponentVerifier(this.parent.component, this.parent.binder);
+                for (int i = this.from; i < this.to; i++)
+                    this.result.statement(this.statements.get(i));
+                return;
+            }
+            int middle = (this.from + this.to) >>> 1;
+            Statements left = new Statements(this.parent, this.statements, this.from, middle);
+            Statements right = new Statements(this.parent, this.statements, middle, this.to);
+            invokeAll(left, right);
+            this.result = left.result;
+            this.result.merge(right.result);
+        }
+    }
+
+    /**
+    * Adds the errors of statements checked after this verifier's; errors this verifier already has come first
+    */
+    private void merge(ComponentVerifier later)
+    {
+        if (this.nameError == null)
+            this.nameError = later.nameError;
+        if (this.constantError == null)
+            this.constantError = later.constantError;
+        if (this.typeError == null)
+            this.typeError = later.typeError;
+    }
+
+    private void constantError(String message)
+    {
+        if (this.constantError == null)
+            this.constantError = new TypeError(message);
+    }
+
+    private void typeError(String message)
+    {
+        if (this.typeError == null)
+            this.typeError = new TypeError(message);
+    }
+
+    /**
+    * Verifies a node that isn't part of an expression: the component, its port and arch blocks, declarations, and assignments
+    * @param node Tree reference to subtree to be verified (initially called with root node of AST)
+    */
+    private void statement(Tree node)
+    {
+        switch (node.nodetype)
+        {
+            case PORTDEC:
+                if (this.hasPortDec)
+                    throw new PortError(String.format("multiple port definitions found in component (%s)", this.component.name));
+                this.hasPortDec = true;
+                break;
+            case ARCH:
+                if (this.hasArchDec)
+                    throw new ArchError(String.format("multiple arch definitions found in component (%s)", this.component.name));
+                this.hasArchDec = true;
+                break;
+        }
+        if (this.nameError != null)
+            return; // nothing below can be reported ahead of it, only a duplicate port or arch declaration
+        if (node.nodetype == Nodetype.ARCH && node.numChildren() > SPLIT)
+        {
+            // (arch statements are all declarations and assignments, none of them can throw a PortError or ArchError)
+            Statements statements = new Statements(this, node.childList(), 0, node.numChildren());
+            statements.invoke();
+            this.merge(statements.result);
+            return;
+        }
+        switch (node.nodetype)
+        {
+            case GENDEC:
+            case PORT:
+            case SIGDEC:
+            case CONST:
+                node.setExpressionType(CdlType.of(node)); // for code generation
+                if (node.datatype == Datatype.VEC)
+                {
+                    Tree width = node.getChild(0);
+                    int widthConstant = this.expression(width);
+                    if (widthConstant < (node.nodetype == Nodetype.GENDEC ? LITERAL : GENERIC))
+                        this.constantError(String.format("declarations of %s of type vector contains a non-constant width", node.attributes.get("name")));
+                    if (!isIntegral(datatype(width)))
+                        this.typeError(String.format("type (%s) not valid for vector width declaration", width.getExpressionType()));
+                    for (int i = 1; i < node.numChildren(); i++)
+                        this.bind(node.getChild(i));
+                }
+                else
+                {
+                    for (Tree child : node.childList())
+                        this.bind(child); // constant values are only bound, not checked
+                }
+                return;
+            case COMPDEC:
+                Component subcomponent = this.binder.getComponent(node.attributes.get("type"));
+                boolean constant = true;
+                for (Tree genericAssign : node.childList())
+                {
+                    DeclaredIdentifier generic;
+                    try
+                    {
+                        generic = this.binder.generic(subcomponent, genericAssign.getChild(0));
+                    }
+                    catch (NameError e)
+                    {
+                        this.nameError = e;
+                        return;
+                    }
+                    Tree value = genericAssign.getChild(1);
+                    constant &= this.expression(value) >= GENERIC;
+                    if (this.nameError != null)
+                        return;
+                    if (generic.datatype != datatype(value))
+                        this.typeError(String.format("generic assignment (%s) and (%s) types don't match", generic.datatype, value.getExpressionType()));
+                }
+                if (!constant)
+                    this.constantError(String.format("component instantiation for %s contains non-constant generic assignments", node.attributes.get("name")));
+                return;
+            case BINARYOP:
+                if (node.operator == Operator.ASSIGN)
+                {
+                    Tree lhs = node.getChild(0);
+                    Tree rhs = node.getChild(1);
+                    this.expression(lhs);
+                    this.expression(rhs);
+                    if (this.nameError == null && datatype(lhs) != datatype(rhs))
+                        this.typeError(String.format("signal assignment (%s) and (%s) types don't match", lhs.getExpressionType(), rhs.getExpressionType()));
+                    return;
+                }
+                this.bind(node);
+                return;
+            default:
+                for (Tree child : node.childList())
+                    this.statement(child);
+        }
+    }
+
+    /**
+    * Binds the references in a subtree that isn't checked any further
+    */
+    private void bind(Tree node)
+    {
+        try
+        {
+            this.binder.bind(this.component, node);
+        }
+        catch (NameError e)
+        {
+            this.nameError = e;
+        }
+    }
+
+    /**
+    * An operator node of an expression being checked, and how far through its operands the check has got
+    */
+    private static class Operation
+    {
+        final Tree node;
+        final List<Tree> children;
+        int next; // index of the operand being checked
+        int constant; // how constant the operands checked so far are
+
+        Operation(Tree node)
+        {
+            this.node = node;
+            this.children = node.childList();
+            this.next = 0;
+            this.constant = LITERAL;
+        }
+    }
+
+    /**
+    * Binds and type-checks an expression, caching the type of each node on it.
+    * Nodes are checked in post-order with an explicit stack of the operations waiting on their operands, so arbitrarily
+    * deep expressions (e.g. long generated reductions) can't overflow the call stack
+    * @param root Tree reference to root node of the expression
+    * @return int how constant the expression is (VARIABLE, GENERIC, or LITERAL)
+    */
+    private int expression(Tree root)
+    {
+        Deque<Operation> stack = new ArrayDeque<Operation>();
+        Tree node = root;
+        while (true)
+        {
+            int constant = this.operand(node);
+            if (constant == OPERATION)
+            {
+                Operation operation = new Operation(node);
+                if (!operation.children.isEmpty())
+                {
+                    stack.push(operation);
+                    node = operation.children.get(0);
+                    continue;
+                }
+                constant = this.operation(operation);
+            }
+            // the subtree at node is done; hand its constness up to the operations waiting on it
+            while (true)
+            {
+                if (stack.isEmpty())
+                    return constant;
+                Operation operation = stack.peek();
+                operation.constant = Math.min(operation.constant, constant);
+                if (operation.next == 0 && operation.node.operator == Operator.SLICE && datatype(operation.children.get(0)) != Datatype.VEC)
+                    this.typeError(String.format("non-vector types (%s) cannot be spliced", operation.children.get(0).getExpressionType())); // checked before the bounds are
+                if (++operation.next < operation.children.size())
+                {
+                    node = operation.children.get(operation.next);
+                    break;
+                }
+                stack.pop();
+                constant = this.operation(operation);
+            }
+        }
+    }
+
+    /**
+    * Checks an expression node that doesn't depend on operands: identifiers, instance.port references, and literals
+    * (or any node, once a NameError has been found)
+    * @return int how constant the node is, or OPERATION if it's an operator whose operands have to be checked first
+    */
+    private int operand(Tree node)
+    {
+        if (this.nameError != null)
+            return VARIABLE;
+        try
+        {
+            if (node.operator == Operator.MEMBER)
+            {
+                node.setExpressionType(this.binder.member(this.component, node).cdltype);
+                return VARIABLE;
+            }
+            if (node.nodetype == Nodetype.IDENTIFIER)
+            {
+                DeclaredIdentifier declaration = this.binder.identifier(this.component, node);
+                node.setExpressionType(declaration.cdltype);
+                return declaration.declaration.nodetype == Nodetype.GENDEC ? GENERIC : VARIABLE;
+            }
+        }
+        catch (NameError e)
+        {
+            this.nameError = e;
+            return VARIABLE;
+        }
+        if (node.nodetype == Nodetype.LITERAL)
+        {
+            node.setExpressionType(CdlType.of(node));
+            return LITERAL;
+        }
+        return OPERATION;
+    }
+
+    /**
+    * Finishes an operator node once all of its operands have been checked
+    * @return int how constant the operation is
+    */
+    private int operation(Operation operation)
+    {
+        if (this.nameError == null)
+            operation.node.setExpressionType(this.type(operation.node, operation.children));
+        return operation.constant;
+    }
+
+    /**
+    * Gets the type of an operator node from the cached types of its operands.
+    * Vector widths are carried through where they follow from the operands' widths (or literal slice bounds)
+    * @param children List of the node's children, whose types have already been computed
+    * @return CdlType of the expression, or null if it's undefined
+    */
+    private CdlType type(Tree node, List<Tree> children)
+    {
+        switch (node.nodetype)
+        {
+            case TERNARYOP:
+                if (node.operator == Operator.COND)
+                {
+                    CdlType arg2 = children.get(1).getExpressionType();
+                    CdlType arg3 = children.get(2).getExpressionType();
+                    if (datatype(children.get(0)) == Datatype.BOOL)
+                    {
+                        if (arg2 == arg3)
+                            return arg2;
+                        if (datatype(arg2) == datatype(arg3))
+                            return CdlType.of(arg2.datatype); // vectors of different (or unknown) widths
+                        this.typeError(String.format("conditional assignment types (%s) and (%s) don't match", arg2, arg3));
+                    }
+                    else
+                        this.typeError(String.format("expression before (?) operator is not boolean"));
+                }
+                else if (node.operator == Operator.SLICE)
+                {
+                    Tree upper = children.get(1);
+                    Tree lower = children.size() == 3 ? children.get(2) : upper;
+                    if (isIntegral(datatype(upper)) && isIntegral(datatype(lower)))
+                    {
+                        int upperBound = CdlType.intValue(upper);
+                        int lowerBound = CdlType.intValue(lower);
+                        return upperBound == CdlType.UNKNOWN || lowerBound == CdlType.UNKNOWN ? CdlType.VEC : CdlType.vec(upperBound - lowerBound + 1);
+                    }
+                    this.typeError("non-integer bounds cannot be used for splice operations");
+                }
+                return null;
+            case BINARYOP:
+                CdlType lhs = children.get(0).getExpressionType();
+                CdlType rhs = children.get(1).getExpressionType();
+                Datatype lhsType = datatype(lhs);
+                Datatype rhsType = datatype(rhs);
+                switch (node.operator)
+                {
+                    case BITAND: case BITOR: case BITNAND: case BITNOR: case BITXOR: case BITXNOR:
+                        // bitise operator
+                        if (lhsType == Datatype.VEC && rhsType == Datatype.VEC)
+                            return lhs == rhs ? lhs : CdlType.VEC;
+                        break;
+                    case LT: case GT: case LTEQ: case GTEQ: case EQ: case NE:
+                        // relational operator
+                        if (isNumeric(lhsType) && isNumeric(rhsType))
+                            return CdlType.BOOL;
+                        break;
+                    case ADD: case SUB:
+                        // arithmetic valid for vectors (numeric_std sizes the result to the wider operand)
+                        if (isNumeric(lhsType) && isNumeric(rhsType))
+                            return rhsType == Datatype.VEC ? widths(lhs, rhs, Math.max(lhs.width, rhs.width)) : lhs;
+                        break;
+                    case MUL:
+                        // (numeric_std sizes a product of vectors to the sum of their widths)
+                        if (isNumeric(lhsType) && isNumeric(rhsType))
+                            return rhsType == Datatype.VEC ? widths(lhs, rhs, lhs.width + rhs.width) : CdlType.of(lhsType);
+                        break;
+                    case DIV:
+                        if (isNumeric(lhsType) && isNumeric(rhsType))
+                            return lhs;
+                        break;
+                    case MOD:
+                        if (isIntegral(lhsType) && isIntegral(rhsType))
+                            return lhs;
+                        break;
+                    case EXP:
+                        if (isNumeric(lhsType) && isIntegral(rhsType))
+                            return CdlType.of(lhsType);
+                        break;
+                    case AND:
+                        // boolean and
+                        if (lhsType == Datatype.BOOL && rhsType == Datatype.BOOL)
+                            return lhs;
+                        // concatenation
+                        else if (lhsType == Datatype.VEC && rhsType == Datatype.VEC)
+                            return widths(lhs, rhs, lhs.width + rhs.width);
+                        break;
+                    case XOR: case OR:
+                        // boolean operator
+                        if (lhsType == Datatype.BOOL && rhsType == Datatype.BOOL)
+                            return lhs;
+                        break;
+                    default:
+                        // wut, how'd we get here
+                }
+                this.typeError(String.format("operator (%s) is undefined for types (%s) and (%s)", node.operator, lhs, rhs));
+                return null;
+            case UNARYOP:
+                CdlType type = children.get(0).getExpressionType();
+                switch (node.operator)
+                {
+                    case NOT:
+                        if (datatype(type) == Datatype.BOOL)
+                            return type;
+                        break;
+                    case NEG:
+                        if (isNumeric(datatype(type)))
+                            return type;
+                        break;
+                    case BITNOT:
+                        if (datatype(type) == Datatype.VEC)
+                            return type;
+                        break;
+                    case PAREN:
+                        return type;
+                }
+                return null;
+        }
+        return null;
+    }
+
+    /**
+    * Gets the type of a vector operation on two vectors whose width is computed from theirs
+    * @param width int width computed from lhs and rhs, only used if both their widths are known
+    * @return CdlType of lhs's data type
+    */
+    private static CdlType widths(CdlType lhs, CdlType rhs, int width)
+    {
+        if (lhs.datatype != Datatype.VEC)
+            return lhs;
+        return lhs.width == CdlType.UNKNOWN || rhs.width == CdlType.UNKNOWN ? CdlType.VEC : CdlType.vec(width);
+    }
+
+    /**
+    * Helper method for type-checking
+    * @return Datatype of a type, or null if it's undefined
+    */
+    private static Datatype datatype(CdlType type)
+    {
+        return type == null ? null : type.datatype;
+    }
+
+    /**
+    * Helper method for type-checking
+    * @return Datatype of an expression whose type has been computed, or null if it's undefined
+    */
+    private static Datatype datatype(Tree expression)
+    {
+        return datatype(expression.getExpressionType());
+    }
+
+    /**
+    * Helper method for type-checking
+    * @return true if type is Datatype.INT, false otherwise
+    */
+    private static boolean isIntegral(Datatype type)
+    {
+        return type == Datatype.INT;
+    }
+
+    /**
+    * Helper method for type-checking
+    * @return true if type is integral or Datatype.VEC, false otherwise
+    */
+    private static boolean isNumeric(Datatype type)
+    {
+        return isIntegral(type) || type == Datatype.VEC;
+    }
+}
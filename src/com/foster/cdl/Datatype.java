@@ -0,0 +1,72 @@
+/*
+Datatype.java - Reed Foster
+Enum definitions for CDL data types
+*/
+
+package com.foster.cdl;
+
+public enum Datatype
+{
+    INT("int"), VEC("vec"), BOOL("bool");
+
+    private final String spelling; // CDL keyword
+
+    Datatype(String spelling)
+    {
+        this.spelling = spelling;
+    }
+
+    /**
+    * Gets the data type named by a CDL type keyword
+    * @param spelling String "int", "vec", or "bool"
+    * @return Datatype, or null if spelling isn't a type keyword
+    */
+    public static Datatype of(String spelling)
+    {
+        if (spelling == null)
+            return null;
+        switch (spelling)
+        {
+            case "int":
+                return INT;
+            case "vec":
+                return VEC;
+            case "bool":
+                return BOOL;
+            default:
+                return null;
+        }
+    }
+
+    /**
+    * Gets the data type of a literal
+    * @param literal Tokentype of the literal token
+    * @return Datatype, or null if literal isn't a literal token type
+    */
+    public static Datatype of(Tokentype literal)
+    {
+        switch (literal)
+        {
+            case DECINTLITERAL:
+            case BININTLITERAL:
+            case HEXINTLITERAL:
+                return INT;
+            case BINVECLITERAL:
+            case HEXVECLITERAL:
+                return VEC;
+            case BOOLLITERAL:
+                return BOOL;
+            default:
+                return null;
+        }
+    }
+
+    /**
+    * Returns the CDL keyword, so error messages read the same as the source
+    */
+    @Override
+    public String toString()
+    {
+        return this.spelling;
+    }
+}
@@ -11,25 +11,31 @@ public class DeclaredIdentifier
 {
     public final String name;
     public final String type;
+    public final Datatype datatype; // type as an enum, null for component instances (whose type is a component name)
+    public final CdlType cdltype; // datatype with the vector width, when the width is a literal; null for component instances
+    public final int symbol; // SymbolTable id of name
     public final Tree declaration;
 
     DeclaredIdentifier(Tree declaration)
     {
         this.name = declaration.attributes.get("name");
+        this.symbol = declaration.symbol != SymbolTable.NONE ? declaration.symbol : SymbolTable.intern(this.name);
         this.type = declaration.attributes.get("type");
+        this.datatype = declaration.datatype;
+        this.cdltype = CdlType.of(declaration);
         this.declaration = declaration;
     }
 
     @Override
     public int hashCode()
     {
-        return this.name.hashCode();
+        return this.symbol;
     }
 
     @Override
     public boolean equals(Object obj)
     {
         DeclaredIdentifier other = (DeclaredIdentifier) obj;
-        return this.name.equals(other.name);
+        return this.symbol == other.symbol;
     }
 }
\ No newline at end of file
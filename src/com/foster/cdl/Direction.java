@@ -0,0 +1,40 @@
+/*
+Direction.java - Reed Foster
+Enum definitions for port directions
+*/
+
+package com.foster.cdl;
+
+public enum Direction
+{
+    INPUT("input", "in"), OUTPUT("output", "out");
+
+    private final String spelling; // CDL keyword
+    public final String vhdl; // VHDL port mode
+
+    Direction(String spelling, String vhdl)
+    {
+        this.spelling = spelling;
+        this.vhdl = vhdl;
+    }
+
+    /**
+    * Gets the direction named by a CDL direction keyword
+    * @param spelling String "input" or "output"
+    * @return Direction, or null if spelling isn't a direction keyword
+    */
+    public static Direction of(String spelling)
+    {
+        if ("input".equals(spelling))
+            return INPUT;
+        if ("output".equals(spelling))
+            return OUTPUT;
+        return null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.spelling;
+    }
+}
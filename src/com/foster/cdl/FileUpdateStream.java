@@ -0,0 +1,198 @@
+/*
+FileUpdateStream.java - Reed Foster
+Output stream that replaces the contents of a file, but only touches the file if the new contents differ.
+Bytes are compared against the existing file as they're written; nothing is written until the first difference,
+and from there on the rest of the output is written over the file. A file whose contents don't change keeps its
+modification time, so downstream tools that rebuild on mtime don't see it as changed
+*/
+
+package com.foster.cdl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Random;
+
+class FileUpdateStream extends OutputStream
+{
+    private static final int BUFFER = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer existing; // scratch space for reading the existing contents to compare against
+    private final ByteBuffer pending; // output that differs from the file, not yet written
+    private long position; // number of bytes written to the stream so far
+    private boolean changed; // true once the output has differed from the file
+
+    /**
+    * Constructor, creates the file if it doesn't exist
+    * @param file Path of the file to update
+    */
+    FileUpdateStream(Path file) throws IOException
+    {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.existing = ByteBuffer.allocate(BUFFER);
+        this.pending = ByteBuffer.allocate(BUFFER);
+        this.position = 0;
+        this.changed = false;
+    }
+
+    /**
+    * Accessor method for whether the file was (or will be, once the stream is closed) rewritten
+    */
+    public boolean changed()
+    {
+        return this.changed;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        this.write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (!this.changed)
+        {
+            int same = this.compare(b, off, len);
+            this.position += same;
+            off += same;
+            len -= same;
+            if (len == 0)
+                return;
+            this.changed = true;
+            this.channel.position(this.position); // the rest of the output is written over the file from here
+        }
+        while (len > 0)
+        {
+            int n = Math.min(len, this.pending.remaining());
+            this.pending.put(b, off, n);
+            this.position += n;
+            off += n;
+            len -= n;
+            if (!this.pending.hasRemaining())
+                this.drain();
+        }
+    }
+
+    /**
+    * Compares output against the existing contents of the file at the current position
+    * @return int number of leading bytes of the output that are the same as the file
+    */
+    private int compare(byte[] b, int off, int len) throws IOException
+    {
+        int same = 0;
+        while (same < len)
+        {
+            this.existing.clear();
+            this.existing.limit(Math.min(this.existing.capacity(), len - same));
+            int n = this.channel.read(this.existing, this.position + same);
+            if (n <= 0)
+                return same; // end of the file
+            for (int i = 0; i < n; i++)
+            {
+                if (this.existing.get(i) != b[off + same + i])
+                    return same + i;
+            }
+            same += n;
+        }
+        return same;
+    }
+
+    /**
+    * Writes the pending output to the file
+    */
+    private void drain() throws IOException
+    {
+        this.pending.flip();
+        while (this.pending.hasRemaining())
+            this.channel.write(this.pending);
+        this.pending.clear();
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        if (this.changed)
+            this.drain();
+    }
+
+    /**
+    * Finishes the update, cutting off whatever's left of the old contents past the end of the output
+    */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            this.flush();
+            if (this.channel.size() != this.position)
+            {
+                this.changed = true;
+                this.channel.truncate(this.position);
+            }
+        }
+        finally
+        {
+            this.channel.close();
+        }
+    }
+
+    /**
+    * Updates a file with the given contents, in writes of a given size, and checks the result
+    * @param step int bytes per write, so comparisons and differences fall in different places relative to each write
+    * @param changed boolean whether the contents are expected to differ from the file's
+    */
+    private static void update(Path file, byte[] contents, int step, boolean changed, String test) throws IOException
+    {
+        FileTime before = FileTime.fromMillis(1000000000000L);
+        Files.setLastModifiedTime(file, before);
+        FileUpdateStream out = new FileUpdateStream(file);
+        for (int i = 0; i < contents.length; i += step)
+            out.write(contents, i, Math.min(step, contents.length - i));
+        out.close();
+        if (!Arrays.equals(Files.readAllBytes(file), contents))
+            throw new RuntimeException(String.format("%s test failed: wrong contents", test));
+        if (out.changed() != changed)
+            throw new RuntimeException(String.format("%s test failed: changed() is %b", test, out.changed()));
+        if (!changed && !Files.getLastModifiedTime(file).equals(before))
+            throw new RuntimeException(String.format("%s test failed: unchanged file was touched", test));
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        Path file = Files.createTempFile("cdl", ".vhd");
+        try
+        {
+            byte[] contents = new byte[3 * BUFFER + 123];
+            new Random(0).nextBytes(contents);
+            for (int step : new int[] {contents.length, 1000, 7})
+            {
+                update(file, contents, step, true, "New contents");
+                update(file, contents, step, false, "Identical output");
+                update(file, Arrays.copyOf(contents, BUFFER + 5), step, true, "Prefix");
+                update(file, contents, step, true, "Longer output");
+                byte[] straddling = contents.clone();
+                for (int i = BUFFER - 3; i < BUFFER + 3; i++) // a difference across the end of the first buffer's worth
+                    straddling[i] ^= 1;
+                update(file, straddling, step, true, "Difference across the buffer boundary");
+                update(file, straddling, step, false, "Identical output after a difference");
+                straddling[straddling.length - 1] ^= 1;
+                update(file, straddling, step, true, "Difference in the last byte");
+                update(file, new byte[0], step, true, "Empty output");
+            }
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+        System.out.println("File update test passed");
+    }
+}
@@ -1,6 +1,11 @@
 /*
 Graph.java - Reed Foster
-Graph class with strings for vertices
+Graph class with strings for vertices.
+Vertex names are hashed to dense int ids; edges are appended to primitive arrays as they're added, and packed into
+compressed sparse row (CSR) adjacency the first time the graph is queried. All traversals are iterative,
+so deep hierarchies can't overflow the stack.
+Reverse edges are packed too, for change-impact queries (which components transitively instantiate one that changed);
+their answers are memoized until the next edge is added. Not thread-safe
 */
 
 package com.foster.cdl;
@@ -10,16 +15,46 @@ import java.util.*;
 public class Graph
 {
     private int vertices; //number of vertices
-    private List<String> nameMap; //maps names to index in adjacency list
-    private List<List<Integer>> adjacencyList; // each element of the list stores a list of the address of child vertices
-    private List<Integer> inDegrees; // each element stores the indegree of the vertex whose adress corresponds to the index of the list
+    private Map<String, Integer> ids; // maps names to vertex ids
+    private List<String> names; // maps vertex ids back to names, in the order the vertices were added
+
+    // edges in the order they were added (possibly with duplicates), as parallel arrays of vertex ids
+    private int edges;
+    private int[] from;
+    private int[] to;
+
+    // CSR adjacency built from the edge arrays, null whenever edges have been added since it was built:
+    // the children of vertex v are targets[offsets[v]] through targets[offsets[v + 1] - 1], without duplicates
+    private int[] offsets;
+    private int[] targets;
+    private int[] inDegrees; // each element stores the indegree of the vertex with that id (counting each distinct edge once)
+    private int[] parentOffsets; // reverse CSR adjacency: the parents of vertex v are parents[parentOffsets[v]] through parents[parentOffsets[v + 1] - 1]
+    private int[] parents;
+    private Map<Integer, BitSet> ancestors; // memoized ancestors() results by vertex id, cleared whenever the adjacency is rebuilt
 
     Graph()
     {
         this.vertices = 0;
-        this.nameMap = new ArrayList<String>();
-        this.adjacencyList = new ArrayList<List<Integer>>();
-        this.inDegrees = new ArrayList<Integer>();
+        this.ids = new HashMap<String, Integer>();
+        this.names = new ArrayList<String>();
+        this.edges = 0;
+        this.from = new int[16];
+        this.to = new int[16];
+    }
+
+    /**
+    * Gets the id of a vertex, adding the vertex if it's new
+    */
+    private int vertex(String name)
+    {
+        Integer id = this.ids.get(name);
+        if (id == null)
+        {
+            id = this.vertices++;
+            this.ids.put(name, id);
+            this.names.add(name);
+        }
+        return id;
     }
 
     /**
@@ -30,29 +65,90 @@ public class Graph
     */
     public void addEdge(String vertex1, String vertex2)
     {
-        int idx1 = this.nameMap.indexOf(vertex1); // doesn't matter that indexOf only returns the index of the first instance; there are no duplicate entries in nameMap
-        int idx2 = this.nameMap.indexOf(vertex2);
-        if (idx1 == -1) // new vertex
+        int idx1 = this.vertex(vertex1);
+        int idx2 = this.vertex(vertex2);
+        if (this.edges == this.from.length)
         {
-            idx1 = this.adjacencyList.size();
-            this.nameMap.add(idx1, vertex1);
-            this.adjacencyList.add(new ArrayList<Integer>());
-            this.inDegrees.add(0);
-            this.vertices++;
+            this.from = Arrays.copyOf(this.from, this.edges * 2);
+            this.to = Arrays.copyOf(this.to, this.edges * 2);
         }
-        if (idx2 == -1) // new vertex
+        this.from[this.edges] = idx1;
+        this.to[this.edges] = idx2;
+        this.edges++;
+        this.offsets = null; // duplicates are dropped when the adjacency is rebuilt
+    }
+
+    /**
+    * Builds the CSR adjacency (if edges have been added since it was last built) with a counting sort of the edges by source,
+    * dropping duplicate edges
+    */
+    private void pack()
+    {
+        if (this.offsets != null)
+            return;
+        int[] offsets = new int[this.vertices + 1];
+        for (int e = 0; e < this.edges; e++)
+            offsets[this.from[e] + 1]++;
+        for (int v = 0; v < this.vertices; v++)
+            offsets[v + 1] += offsets[v];
+        int[] next = Arrays.copyOf(offsets, this.vertices);
+        int[] targets = new int[this.edges];
+        for (int e = 0; e < this.edges; e++)
+            targets[next[this.from[e]]++] = this.to[e];
+        // drop duplicate children of each vertex (seen[child] == v + 1 once child has been kept for v), compacting in place
+        int[] seen = new int[this.vertices];
+        int[] inDegrees = new int[this.vertices];
+        int kept = 0;
+        for (int v = 0; v < this.vertices; v++)
         {
-            idx2 = this.adjacencyList.size();
-            this.nameMap.add(idx2, vertex2);
-            this.adjacencyList.add(new ArrayList<Integer>());
-            this.inDegrees.add(0);
-            this.vertices++;
+            int start = offsets[v];
+            offsets[v] = kept;
+            for (int i = start; i < offsets[v + 1]; i++)
+            {
+                int child = targets[i];
+                if (seen[child] != v + 1)
+                {
+                    seen[child] = v + 1;
+                    targets[kept++] = child;
+                    inDegrees[child]++;
+                }
+            }
         }
-        if (!this.adjacencyList.get(idx1).contains(idx2))
+        offsets[this.vertices] = kept;
+        this.offsets = offsets;
+        this.targets = kept == targets.length ? targets : Arrays.copyOf(targets, kept);
+        this.inDegrees = inDegrees;
+        // reverse adjacency, by counting sort of the distinct edges by target
+        int[] parentOffsets = new int[this.vertices + 1];
+        for (int v = 0; v < this.vertices; v++)
+            parentOffsets[v + 1] = parentOffsets[v] + inDegrees[v];
+        next = Arrays.copyOf(parentOffsets, this.vertices);
+        int[] parents = new int[kept];
+        for (int v = 0; v < this.vertices; v++)
         {
-            this.adjacencyList.get(idx1).add(idx2); // if there isn't already an edge from vertex1 to vertex2, add it to the adjacency list
-            this.inDegrees.set(idx2, this.inDegrees.get(idx2) + 1); // increment the indegree of the "to" vertex
+            for (int i = offsets[v]; i < offsets[v + 1]; i++)
+                parents[next[this.targets[i]]++] = v;
         }
+        this.parentOffsets = parentOffsets;
+        this.parents = parents;
+        this.ancestors = new HashMap<Integer, BitSet>();
+    }
+
+    /**
+    * Get the number of vertices
+    */
+    public int numVertices()
+    {
+        return this.vertices;
+    }
+
+    /**
+    * Get the number of distinct edges
+    */
+    public int numEdges()
+    {
+        this.pack();
+        return this.targets.length;
     }
 
     /**
@@ -61,59 +157,317 @@ public class Graph
     */
     public String rootVertex()
     {
+        this.pack();
         for (int i = 0; i < this.vertices; i++)
         {
-            if (this.inDegrees.get(i) == 0)
-                return this.nameMap.get(i); 
+            if (this.inDegrees[i] == 0)
+                return this.names.get(i);
         }
         return "";
     }
 
+    /**
+    * Finds every vertex with a path to a vertex, e.g. every component that instantiates a component directly or indirectly
+    * (so has to be verified and generated again when it changes). Found by a breadth-first search over the reverse edges that
+    * stops at any vertex whose ancestors are already known, and memoized
+    * @param vertex String name of the vertex
+    * @return List of the names of its ancestors, in the order they were added to the graph (including vertex itself only if it's on a cycle);
+    * empty if vertex isn't in the graph
+    */
+    public List<String> ancestors(String vertex)
+    {
+        Integer id = this.ids.get(vertex);
+        if (id == null)
+            return new ArrayList<String>();
+        return this.names(this.ancestors(id));
+    }
+
+    /**
+    * Finds the root vertices that have a path to any of a set of vertices, e.g. the top-level components affected by changes to
+    * the components of one file
+    * @param vertices Collection of names; names that aren't in the graph are treated as vertices without edges (so are roots themselves)
+    * @return List of the names of the affected roots, in the order they were added to the graph, followed by any names that weren't in the graph
+    */
+    public List<String> affectedRoots(Collection<String> vertices)
+    {
+        this.pack();
+        BitSet affected = new BitSet(this.vertices);
+        List<String> unknown = new ArrayList<String>();
+        for (String vertex : vertices)
+        {
+            Integer id = this.ids.get(vertex);
+            if (id == null)
+            {
+                if (!unknown.contains(vertex))
+                    unknown.add(vertex);
+                continue;
+            }
+            affected.set(id);
+            affected.or(this.ancestors(id));
+        }
+        BitSet roots = new BitSet(this.vertices);
+        for (int v = affected.nextSetBit(0); v >= 0; v = affected.nextSetBit(v + 1))
+        {
+            if (this.inDegrees[v] == 0)
+                roots.set(v);
+        }
+        List<String> names = this.names(roots);
+        names.addAll(unknown);
+        return names;
+    }
+
+    /**
+    * Helper method for ancestors
+    * @return BitSet of the ids of the vertices with a path to vertex id (shared with the memo, so callers mustn't modify it)
+    */
+    private BitSet ancestors(int id)
+    {
+        this.pack();
+        BitSet found = this.ancestors.get(id);
+        if (found != null)
+            return found;
+        found = new BitSet(this.vertices);
+        int[] queue = new int[this.vertices + 1]; // vertex itself is queued twice if it's on a cycle
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = id;
+        while (head < tail)
+        {
+            int v = queue[head++];
+            for (int i = this.parentOffsets[v]; i < this.parentOffsets[v + 1]; i++)
+            {
+                int parent = this.parents[i];
+                if (found.get(parent))
+                    continue;
+                found.set(parent);
+                BitSet known = this.ancestors.get(parent);
+                if (known != null)
+                    found.or(known); // everything above parent is already known, no need to search it again
+                else
+                    queue[tail++] = parent;
+            }
+        }
+        this.ancestors.put(id, found);
+        return found;
+    }
+
+    /**
+    * Gets the names of a set of vertex ids, in id order
+    */
+    private List<String> names(BitSet ids)
+    {
+        List<String> names = new ArrayList<String>(ids.cardinality());
+        for (int v = ids.nextSetBit(0); v >= 0; v = ids.nextSetBit(v + 1))
+            names.add(this.names.get(v));
+        return names;
+    }
+
     /**
     * Determines cyclicity of the graph
     * @return true if graph has no cycles, false otherwise
     */
     public boolean acyclic()
     {
-        boolean[] visited = new boolean[this.vertices];
-        boolean[] recStack = new boolean[this.vertices];
-        for (int i = 0; i < this.vertices; i++)
+        return this.cycles().isEmpty();
+    }
+
+    /**
+    * Finds every cycle in the graph, as the strongly connected components that contain one
+    * (those with more than one vertex, and single vertices with an edge to themselves)
+    * @return List of the names of the members of each cyclic component, each in the order the vertices were added,
+    * ordered by their first member; empty if the graph is acyclic
+    */
+    public List<List<String>> cycles()
+    {
+        int[] component = this.stronglyConnectedComponents();
+        int count = 0;
+        for (int v = 0; v < this.vertices; v++)
+            count = Math.max(count, component[v] + 1);
+        int[] sizes = new int[count];
+        for (int v = 0; v < this.vertices; v++)
+            sizes[component[v]]++;
+        boolean[] cyclic = new boolean[count];
+        for (int v = 0; v < this.vertices; v++)
         {
-            visited[i] = false;
-            recStack[i] = false;
+            cyclic[component[v]] |= sizes[component[v]] > 1;
+            for (int i = this.offsets[v]; i < this.offsets[v + 1]; i++)
+                cyclic[component[v]] |= this.targets[i] == v; // self-reference
         }
-        for (int i = 0; i < this.vertices; i++)
+        List<List<String>> cycles = new ArrayList<List<String>>();
+        Map<Integer, List<String>> members = new HashMap<Integer, List<String>>();
+        for (int v = 0; v < this.vertices; v++) // vertices in order, so members and cycles come out in the order vertices were added
         {
-            if (cyclicUtil(i, visited, recStack))
-                return false;
+            if (!cyclic[component[v]])
+                continue;
+            List<String> cycle = members.get(component[v]);
+            if (cycle == null)
+            {
+                cycle = new ArrayList<String>();
+                members.put(component[v], cycle);
+                cycles.add(cycle);
+            }
+            cycle.add(this.names.get(v));
         }
-        return true;
+        return cycles;
     }
 
     /**
-    * Helper method for acyclic; recursively visits each subtree and checks to see if the root node is visited and on the recursion stack
-    * @param vertex int vertex at which to start search
-    * @param visited boolean[] containing list of visited nodes
-    * @param recStack boolean[] containing list of nodes that are on the recursion stack
-    * @return true if a cycle is found, false otherwise
+    * Tarjan's strongly connected components algorithm, with explicit stacks in place of recursion
+    * @return int[] id of the strongly connected component each vertex belongs to
     */
-    private boolean cyclicUtil(int vertex, boolean[] visited, boolean[] recStack)
+    private int[] stronglyConnectedComponents()
     {
-        visited[vertex] = true;
-        recStack[vertex] = true;
-        for (Integer child : this.adjacencyList.get(vertex))
+        this.pack();
+        int n = this.vertices;
+        int[] index = new int[n]; // order in which each vertex was discovered, plus one (0 means undiscovered)
+        int[] lowlink = new int[n];
+        int[] component = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n]; // Tarjan's stack of vertices not yet assigned to a component
+        int top = 0;
+        int[] callStack = new int[n]; // depth-first search path, standing in for the recursion
+        int[] edge = new int[n]; // next edge to follow out of each vertex on the path
+        int depth = 0;
+        int discovered = 0;
+        int components = 0;
+        for (int root = 0; root < n; root++)
         {
-            if (!visited[child]) //if the child vertex is not visited, recurse
+            if (index[root] != 0)
+                continue;
+            callStack[depth++] = root;
+            index[root] = lowlink[root] = ++discovered;
+            edge[root] = this.offsets[root];
+            stack[top++] = root;
+            onStack[root] = true;
+            while (depth > 0)
             {
-                if (this.cyclicUtil(child, visited, recStack))
-                    return true;
+                int v = callStack[depth - 1];
+                if (edge[v] < this.offsets[v + 1])
+                {
+                    int child = this.targets[edge[v]++];
+                    if (index[child] == 0) // "recurse" into the child
+                    {
+                        callStack[depth++] = child;
+                        index[child] = lowlink[child] = ++discovered;
+                        edge[child] = this.offsets[child];
+                        stack[top++] = child;
+                        onStack[child] = true;
+                    }
+                    else if (onStack[child])
+                        lowlink[v] = Math.min(lowlink[v], index[child]);
+                    continue;
+                }
+                // every edge out of v has been followed; "return" to its parent
+                depth--;
+                if (lowlink[v] == index[v]) // v is the root of a component: pop it off Tarjan's stack
+                {
+                    int member;
+                    do
+                    {
+                        member = stack[--top];
+                        onStack[member] = false;
+                        component[member] = components;
+                    } while (member != v);
+                    components++;
+                }
+                if (depth > 0)
+                {
+                    int parent = callStack[depth - 1];
+                    lowlink[parent] = Math.min(lowlink[parent], lowlink[v]);
+                }
             }
-            else if (recStack[child]) //visited, and on recStack; this is where the magic happens
+        }
+        return component;
+    }
+
+    /**
+    * Orders the vertices so that every edge goes from an earlier vertex to a later one (Kahn's algorithm).
+    * Ties are broken by the order vertices were added, so the order is deterministic
+    * @return List of vertex names, with each component before its subcomponents; null if the graph has a cycle
+    */
+    public List<String> topologicalOrder()
+    {
+        this.pack();
+        int[] inDegrees = this.inDegrees.clone();
+        int[] queue = new int[this.vertices];
+        int head = 0;
+        int tail = 0;
+        for (int v = 0; v < this.vertices; v++)
+        {
+            if (inDegrees[v] == 0)
+                queue[tail++] = v;
+        }
+        while (head < tail)
+        {
+            int v = queue[head++];
+            for (int i = this.offsets[v]; i < this.offsets[v + 1]; i++)
             {
-                return true;
+                if (--inDegrees[this.targets[i]] == 0)
+                    queue[tail++] = this.targets[i];
             }
         }
-        recStack[vertex] = false;
-        return false;
+        if (tail < this.vertices)
+            return null;
+        List<String> order = new ArrayList<String>(this.vertices);
+        for (int i = 0; i < tail; i++)
+            order.add(this.names.get(queue[i]));
+        return order;
+    }
+
+    /**
+    * Throws if a query doesn't give the expected answer
+    */
+    private static void check(String test, Object actual, Object expected)
+    {
+        if (!Objects.equals(actual, expected))
+            throw new RuntimeException(String.format("%s test failed: expected %s, got %s", test, expected, actual));
+    }
+
+    public static void main(String[] args)
+    {
+        // diamond, with a duplicate edge
+        Graph dag = new Graph();
+        dag.addEdge("A", "B");
+        dag.addEdge("A", "B");
+        dag.addEdge("A", "C");
+        dag.addEdge("B", "D");
+        dag.addEdge("C", "D");
+        check("Duplicate edge", dag.numEdges(), 4);
+        check("Acyclic", dag.acyclic(), true);
+        check("Acyclic cycles", dag.cycles(), new ArrayList<List<String>>());
+        check("Topological order", dag.topologicalOrder(), Arrays.asList("A", "B", "C", "D"));
+        check("Root", dag.rootVertex(), "A");
+        check("Ancestors", dag.ancestors("D"), Arrays.asList("A", "B", "C"));
+        check("Affected roots", dag.affectedRoots(Arrays.asList("C", "E")), Arrays.asList("A", "E"));
+        // edges added after a query are picked up by the next one
+        dag.addEdge("D", "B");
+        check("Cycle added after a query", dag.cycles(), Arrays.asList(Arrays.asList("B", "D")));
+        check("Cycle added after a query order", dag.topologicalOrder(), null);
+        check("Cycle added after a query ancestors", dag.ancestors("D"), Arrays.asList("A", "B", "C", "D"));
+
+        // a cycle of three vertices and a self-reference, hanging off an acyclic root
+        Graph cyclic = new Graph();
+        cyclic.addEdge("T", "X");
+        cyclic.addEdge("X", "Y");
+        cyclic.addEdge("Y", "Z");
+        cyclic.addEdge("Z", "X");
+        cyclic.addEdge("T", "S");
+        cyclic.addEdge("S", "S");
+        cyclic.addEdge("T", "U");
+        check("Cycles", cyclic.cycles(), Arrays.asList(Arrays.asList("X", "Y", "Z"), Arrays.asList("S")));
+        check("Cyclic", cyclic.acyclic(), false);
+        check("Cyclic order", cyclic.topologicalOrder(), null);
+        check("Self-reference ancestors", cyclic.ancestors("S"), Arrays.asList("T", "S"));
+        check("Acyclic vertex ancestors", cyclic.ancestors("U"), Arrays.asList("T"));
+
+        // a chain deep enough to overflow a recursive search
+        Graph chain = new Graph();
+        for (int i = 0; i < 200000; i++)
+            chain.addEdge("C" + i, "C" + (i + 1));
+        check("Deep chain", chain.acyclic(), true);
+        check("Deep chain order", chain.topologicalOrder().size(), 200001);
+        chain.addEdge("C200000", "C0");
+        check("Deep cycle", chain.cycles().get(0).size(), 200001);
+        System.out.println("Graph test passed");
     }
-}
\ No newline at end of file
+}
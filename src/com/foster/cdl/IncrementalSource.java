@@ -0,0 +1,515 @@
+/*
+IncrementalSource.java - Reed Foster
+Source file kept split into its components, so that an edit only re-lexes and re-parses the components it touches.
+Components the edit doesn't touch keep their Component objects, and subtrees of an edited component that didn't change are
+carried over from its previous tree by identity
+*/
+
+package com.foster.cdl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class IncrementalSource
+{
+    /**
+    * A component and the source text that ends with it: the whitespace and comments after the previous component, then the component itself
+    */
+    private static class Unit
+    {
+        final String text;
+        final int newlines; // number of newlines in text
+        final String source; // text of the component itself, from its first token through its closing brace
+        final int line; // position of source in the file when it was parsed, which error's position is relative to
+        final int col; // (line is -1 for an unterminated component at the end of the file)
+        final Component component; // null if the component doesn't parse
+        final Error error; // SyntaxError or NameError from parsing the component, null if it parsed
+
+        Unit(String text, String source, int line, int col, Component component, Error error)
+        {
+            this.text = text;
+            this.newlines = countNewlines(text, 0, text.length());
+            this.source = source;
+            this.line = line;
+            this.col = col;
+            this.component = component;
+            this.error = error;
+        }
+
+        /**
+        * Gets the column just past the end of text
+        * @param col int column on which text starts
+        */
+        int endCol(int col)
+        {
+            return this.newlines == 0 ? col + this.text.length() : this.text.length() - this.text.lastIndexOf('\n') - 1;
+        }
+
+        /**
+        * Gets the error with positions that are current. Components that aren't edited keep their units, so an edit above
+        * one that failed moves it without parsing it again; its error is reproduced at the new position when it's reported
+        * (trees don't record positions, so a component that parsed doesn't go stale this way)
+        * @param line int line on which text now starts
+        * @param col int column on which text now starts
+        */
+        Error locate(int line, int col)
+        {
+            if (this.line < 0)
+                return new SyntaxError(String.format("Unterminated component after line %d", line + this.newlines + 1));
+            int start = this.text.length() - this.source.length();
+            int sourceline = line + countNewlines(this.text, 0, start);
+            int sourcecol = sourceline == line ? col + start : start - this.text.lastIndexOf('\n', start - 1) - 1;
+            if (sourceline == this.line && sourcecol == this.col)
+                return this.error;
+            try
+            {
+                new Component(new Parser(new Lexer(this.source, 0, this.source.length(), sourceline, sourcecol)).parse());
+            }
+            catch (SyntaxError | NameError e)
+            {
+                return e;
+            }
+            return this.error; // (can't happen; the source is the same)
+        }
+    }
+
+    private final List<Unit> units;
+    private String tail; // text after the last component (whitespace and comments)
+    private int reparsed; // number of components parsed by the most recent edit
+
+    /**
+    * Constructor
+    * @param text String full source of the file
+    */
+    IncrementalSource(String text)
+    {
+        this.units = new ArrayList<Unit>();
+        this.tail = "";
+        this.edit(0, 0, text);
+    }
+
+    private static int countNewlines(String text, int from, int to)
+    {
+        int count = 0;
+        for (int i = from; i < to; i++)
+        {
+            if (text.charAt(i) == '\n')
+                count++;
+        }
+        return count;
+    }
+
+    /**
+    * Splits text into units, parsing each component (or reusing the component of an old unit with the same source)
+    * @param text String to split
+    * @param line int line of the file on which text starts
+    * @param col int column of the file on which text starts
+    * @param old List of units text replaces, whose components and trees may be reused
+    * @param split List to add the new units to
+    * @return String text after the last complete component, or null if text ends in an unterminated component
+    */
+    private String split(String text, int line, int col, List<Unit> old, List<Unit> split)
+    {
+        Map<String, Unit> unchanged = new HashMap<String, Unit>();
+        Map<String, Unit> named = new HashMap<String, Unit>();
+        for (Unit unit : old)
+        {
+            unchanged.put(unit.source, unit);
+            if (unit.component != null)
+                named.put(unit.component.name, unit);
+        }
+        ComponentReader reader = new ComponentReader(Channels.newChannel(new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1))));
+        int end = 0;
+        try
+        {
+            CharSequence unit;
+            while ((unit = reader.next()) != null)
+            {
+                if (!reader.complete())
+                    return null;
+                int start = (int) reader.offset();
+                String source = text.substring(start, (int) reader.end());
+                int unitline = line + reader.line();
+                int unitcol = reader.line() == 0 ? col + reader.col() : reader.col();
+                Unit previous = unchanged.remove(source);
+                Component component = previous == null ? null : previous.component;
+                Error error = null;
+                if (component == null) // (components that failed are parsed again, so their errors report current line numbers)
+                {
+                    this.reparsed++;
+                    try
+                    {
+                        Tree ast = new Parser(new Lexer(unit, 0, unit.length(), unitline, unitcol)).parse();
+                        Unit match = named.get(ast.attributes.get("name"));
+                        component = new Component(match == null || match.component == null ? ast : share(match.component.ast, ast));
+                    }
+                    catch (SyntaxError | NameError e)
+                    {
+                        error = e;
+                    }
+                }
+                split.add(new Unit(text.substring(end, (int) reader.end()), source, unitline, unitcol, component, error));
+                end = (int) reader.end();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e); // can't happen reading from memory
+        }
+        return text.substring(end);
+    }
+
+    /**
+    * Replaces a range of the source
+    * @param offset int offset of the first character to replace
+    * @param length int number of characters to replace
+    * @param replacement String text to insert in their place
+    */
+    public void edit(int offset, int length, String replacement)
+    {
+        // the window is every unit the edit touches, including ones it only borders (it could join or split them)
+        int first = 0;
+        int start = 0;
+        int line = 0;
+        int col = 0;
+        while (first < this.units.size() && start + this.units.get(first).text.length() < offset)
+        {
+            Unit unit = this.units.get(first);
+            start += unit.text.length();
+            line += unit.newlines;
+            col = unit.endCol(col);
+            first++;
+        }
+        int last = first;
+        int end = start;
+        while (last < this.units.size() && end <= offset + length)
+            end += this.units.get(last++).text.length();
+        while (true)
+        {
+            this.reparsed = 0;
+            boolean withtail = last == this.units.size();
+            StringBuilder window = new StringBuilder();
+            for (Unit unit : this.units.subList(first, last))
+                window.append(unit.text);
+            if (withtail)
+                window.append(this.tail);
+            window.replace(offset - start, offset - start + length, replacement);
+            List<Unit> split = new ArrayList<Unit>();
+            String rest = this.split(window.toString(), line, col, this.units.subList(first, last), split);
+            if (rest == null && !withtail)
+            {
+                // an unterminated component runs into the next one; widen the window and try again
+                last++;
+                continue;
+            }
+            if (rest == null)
+            {
+                // unterminated component at the end of the file; keep its text, and report it when the components are requested
+                rest = "";
+                String text = window.substring(totalLength(split));
+                split.add(new Unit(text, text.trim(), -1, 0, null, new SyntaxError(String.format("Unterminated component after line %d", line + countNewlines(window.toString(), 0, window.length()) + 1))));
+            }
+            this.units.subList(first, last).clear();
+            this.units.addAll(first, split);
+            if (withtail)
+                this.tail = rest;
+            else if (rest.length() > 0)
+            {
+                // trailing whitespace and comments belong to the text in front of the next component
+                Unit next = this.units.get(first + split.size());
+                this.units.set(first + split.size(), new Unit(rest + next.text, next.source, next.line, next.col, next.component, next.error));
+            }
+            return;
+        }
+    }
+
+    private static int totalLength(List<Unit> units)
+    {
+        int length = 0;
+        for (Unit unit : units)
+            length += unit.text.length();
+        return length;
+    }
+
+    /**
+    * A node of the fresh tree whose children are being matched against the children of the node it replaces
+    */
+    private static class Match
+    {
+        final Tree fresh;
+        final List<Tree> oldchildren;
+        final List<Tree> freshchildren;
+        final Map<Integer, Deque<Tree>> candidates; // old children not matched yet, by hash
+        final Set<Tree> used; // old children already reused
+        final List<Tree> children; // children of the rebuilt node so far
+        int next; // index of the fresh child being matched
+
+        Match(Tree old, Tree fresh, Map<Tree, Integer> hashes)
+        {
+            this.fresh = fresh;
+            this.oldchildren = old.childList();
+            this.freshchildren = fresh.childList();
+            this.candidates = new HashMap<Integer, Deque<Tree>>();
+            for (Tree child : this.oldchildren)
+                this.candidates.computeIfAbsent(hashes.get(child), h -> new ArrayDeque<Tree>()).add(child);
+            this.used = Collections.newSetFromMap(new IdentityHashMap<Tree, Boolean>());
+            this.children = new ArrayList<Tree>(this.freshchildren.size());
+            this.next = 0;
+        }
+
+        /**
+        * Adds the rebuilt (or reused) version of the current fresh child
+        */
+        void add(Tree child)
+        {
+            this.used.add(child);
+            this.children.add(child);
+            this.next++;
+        }
+    }
+
+    /**
+    * Rebuilds a freshly parsed tree so that each subtree equal to one in the previous tree is replaced by the previous instance.
+    * Walks both trees with an explicit stack and compares subtrees by hashes computed once up front, so deep expressions cost
+    * O(n) and can't overflow the call stack. The binding and type state that analysis left on reused subtrees is cleared,
+    * since it belongs to the previous version of the component
+    * @param old Tree previous version
+    * @param fresh Tree new version
+    * @return Tree equal to fresh, sharing every unchanged subtree with old
+    */
+    private static Tree share(Tree old, Tree fresh)
+    {
+        Map<Tree, Integer> hashes = new IdentityHashMap<Tree, Integer>();
+        hash(old, hashes);
+        hash(fresh, hashes);
+        Tree result = start(old, fresh, hashes);
+        if (result != null)
+            return result;
+        Deque<Match> stack = new ArrayDeque<Match>();
+        stack.push(new Match(old, fresh, hashes));
+        while (true)
+        {
+            Match match = stack.peek();
+            if (match.next == match.freshchildren.size())
+            {
+                stack.pop();
+                Tree rebuilt = new Tree(match.fresh.nodetype, match.fresh.attributes, match.children, match.fresh.symbol, match.fresh.operator);
+                if (stack.isEmpty())
+                    return rebuilt;
+                stack.peek().add(rebuilt);
+                continue;
+            }
+            Tree child = match.freshchildren.get(match.next);
+            Tree same = null;
+            Deque<Tree> sameHash = match.candidates.get(hashes.get(child));
+            if (sameHash != null)
+            {
+                for (Iterator<Tree> it = sameHash.iterator(); it.hasNext();)
+                {
+                    Tree candidate = it.next();
+                    if (equal(candidate, child, hashes))
+                    {
+                        it.remove();
+                        same = candidate;
+                        break;
+                    }
+                }
+            }
+            if (same != null)
+            {
+                match.add(clear(same));
+                continue;
+            }
+            if (match.next < match.oldchildren.size() && !match.used.contains(match.oldchildren.get(match.next)))
+            {
+                // changed in place; share what's unchanged inside it
+                Tree previous = match.oldchildren.get(match.next);
+                Tree shared = start(previous, child, hashes);
+                if (shared == null)
+                    stack.push(new Match(previous, child, hashes));
+                else
+                    match.add(shared);
+                continue;
+            }
+            match.add(child);
+        }
+    }
+
+    /**
+    * Handles the cases of share() that don't need the children matched
+    * @return Tree old (cleared) if the subtrees are equal, fresh if they can't share anything, or null if their children have to be matched
+    */
+    private static Tree start(Tree old, Tree fresh, Map<Tree, Integer> hashes)
+    {
+        if (equal(old, fresh, hashes))
+            return clear(old);
+        if (old.nodetype != fresh.nodetype || old.numChildren() == 0 || fresh.numChildren() == 0)
+            return fresh;
+        return null;
+    }
+
+    /**
+    * Clears the bindings and types analysis cached on a reused subtree
+    * @return Tree root, for chaining
+    */
+    private static Tree clear(Tree root)
+    {
+        Deque<Tree> stack = new ArrayDeque<Tree>();
+        stack.push(root);
+        while (!stack.isEmpty())
+        {
+            Tree node = stack.pop();
+            node.bind(null);
+            node.setExpressionType(null);
+            for (Tree child : node.childList())
+                stack.push(child);
+        }
+        return root;
+    }
+
+    /**
+    * Computes the structural hash of every subtree of a tree (consistent with equal()) in one bottom-up pass
+    * @param hashes Map to add the hash of each node to
+    */
+    private static void hash(Tree root, Map<Tree, Integer> hashes)
+    {
+        List<Tree> preorder = new ArrayList<Tree>();
+        Deque<Tree> stack = new ArrayDeque<Tree>();
+        stack.push(root);
+        while (!stack.isEmpty())
+        {
+            Tree node = stack.pop();
+            preorder.add(node);
+            for (Tree child : node.childList())
+                stack.push(child);
+        }
+        for (int i = preorder.size() - 1; i >= 0; i--) // every node's children come after it in preorder
+        {
+            Tree node = preorder.get(i);
+            int h = Objects.hash(node.nodetype, node.operator, node.symbol, node.attributes);
+            for (Tree child : node.childList())
+                h = 31 * h + hashes.get(child);
+            hashes.put(node, h);
+        }
+    }
+
+    /**
+    * Structural equality of subtrees whose hashes have been computed
+    */
+    private static boolean equal(Tree a, Tree b, Map<Tree, Integer> hashes)
+    {
+        Deque<Tree> stack = new ArrayDeque<Tree>(); // pairs of nodes still to compare
+        stack.push(a);
+        stack.push(b);
+        while (!stack.isEmpty())
+        {
+            b = stack.pop();
+            a = stack.pop();
+            if (a == b)
+                continue;
+            if (!hashes.get(a).equals(hashes.get(b)))
+                return false;
+            if (a.nodetype != b.nodetype || a.operator != b.operator || a.symbol != b.symbol || a.numChildren() != b.numChildren() || !a.attributes.equals(b.attributes))
+                return false;
+            for (int i = 0; i < a.numChildren(); i++)
+            {
+                stack.push(a.getChild(i));
+                stack.push(b.getChild(i));
+            }
+        }
+        return true;
+    }
+
+    /**
+    * Get the current text of the file
+    */
+    public String getText()
+    {
+        StringBuilder text = new StringBuilder();
+        for (Unit unit : this.units)
+            text.append(unit.text);
+        return text.append(this.tail).toString();
+    }
+
+    /**
+    * Get the number of components parsed by the most recent edit
+    */
+    public int reparsed()
+    {
+        return this.reparsed;
+    }
+
+    /**
+    * Gets the parsed components, in source order
+    * @throws SyntaxError or NameError of the first component that doesn't parse
+    */
+    public List<Component> getComponents()
+    {
+        List<Component> components = new ArrayList<Component>(this.units.size());
+        int line = 0;
+        int col = 0;
+        for (Unit unit : this.units)
+        {
+            if (unit.error != null)
+                throw unit.locate(line, col);
+            components.add(unit.component);
+            line += unit.newlines;
+            col = unit.endCol(col);
+        }
+        return components;
+    }
+
+    /**
+    * Formats the position of an offset in text the way errors report it
+    */
+    private static String position(String text, int offset)
+    {
+        int line = countNewlines(text, 0, offset);
+        int col = offset - text.lastIndexOf('\n', offset - 1) - 1;
+        return String.format("at col %d on line %d.", col + 1, line + 1);
+    }
+
+    /**
+    * Checks that the components of source report an error at a position
+    */
+    private static void expectError(IncrementalSource source, String position, String test)
+    {
+        try
+        {
+            source.getComponents();
+        }
+        catch (SyntaxError | NameError e)
+        {
+            if (e.getMessage().contains(position))
+                return;
+            throw new RuntimeException(String.format("%s test failed: expected error %s, got (%s)", test, position, e.getMessage()));
+        }
+        throw new RuntimeException(String.format("%s test failed: expected error %s", test, position));
+    }
+
+    public static void main(String[] args)
+    {
+        String text = "component A{port{input bool p;}arch{}}\ncomponent B{port{input bool p;}arch{}}  component C{port{input bool p; output bool q;}arch{q <= p;}}\n";
+        IncrementalSource source = new IncrementalSource(text);
+        List<Component> before = source.getComponents();
+        // lines inserted into A move B and C, which are kept as they are
+        source.edit(text.indexOf("arch{}") + 5, 0, "\n\nsignal bool s;\n");
+        List<Component> after = source.getComponents();
+        if (source.reparsed() != 1 || after.get(0) == before.get(0) || after.get(1) != before.get(1) || after.get(2) != before.get(2))
+            throw new RuntimeException("Component reuse test failed");
+        // an error in C (which starts partway through a line) reports where it is
+        int offset = source.getText().indexOf("q <= p;") + 6;
+        source.edit(offset, 0, " p");
+        expectError(source, position(source.getText(), offset + 1), "Edited component position");
+        // and still does after lines are inserted above it, though it isn't parsed again
+        source.edit(0, 0, "\n\n");
+        if (source.reparsed() != 0)
+            throw new RuntimeException("Component reuse test failed");
+        expectError(source, position(source.getText(), source.getText().indexOf("p p;") + 2), "Moved component position");
+        System.out.println("Incremental edit test passed");
+    }
+}
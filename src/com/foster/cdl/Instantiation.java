@@ -0,0 +1,13 @@
+/*
+Instantiation.java - Reed Foster
+Enum definitions for the ways the VHDL generator can instantiate subcomponents
+*/
+
+package com.foster.cdl;
+
+public enum Instantiation
+{
+    COMPONENT_PER_INSTANCE, // a component declaration for every instance, in the architecture that instantiates it
+    COMPONENT_PER_TYPE, // one component declaration for each component type an architecture instantiates
+    ENTITY // VHDL-93 direct entity instantiation (entity work.<name>), without component declarations
+}
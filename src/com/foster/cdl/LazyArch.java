@@ -0,0 +1,96 @@
+/*
+LazyArch.java - Reed Foster
+Tree node for an architecture that was skipped when its component was parsed; its body is
+lexed and parsed the first time anything looks at its children (and compacted into an AstArena then, if its component's AST is compact)
+*/
+
+package com.foster.cdl;
+
+import java.util.*;
+
+public class LazyArch extends Tree
+{
+    private final CharSequence source;
+    private final int start; // offset of the "arch" keyword in source
+    private final int end; // offset just past the closing brace
+    private final int line; // position of start, for error messages
+    private final int col;
+    private List<Tree> children; // null until parsed
+    private boolean compact; // if true, the body is flattened into an AstArena when it's parsed
+
+    LazyArch(CharSequence source, int start, int end, int line, int col)
+    {
+        super(Nodetype.ARCH, new HashMap<String, String>(), Collections.<Tree>emptyList());
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.line = line;
+        this.col = col;
+    }
+
+    /**
+    * Returns true if the body has been parsed
+    */
+    public synchronized boolean isParsed()
+    {
+        return this.children != null;
+    }
+
+    /**
+    * Makes the body compact once it's parsed (its children are then read-only ArenaTree views)
+    */
+    synchronized void compactWhenParsed()
+    {
+        this.compact = true;
+    }
+
+    /**
+    * Parses the body on first use
+    * @throws SyntaxError if the body doesn't parse
+    */
+    private synchronized List<Tree> children()
+    {
+        if (this.children == null)
+        {
+            Tree arch = new Parser(new TokenBuffer(new Lexer(this.source, this.start, this.end, this.line, this.col))).parseArch();
+            this.children = this.compact ? AstArena.compact(arch).root().getChildren() : arch.getChildren();
+        }
+        return this.children;
+    }
+
+    @Override
+    public void addChild(Tree child)
+    {
+        this.children().add(child);
+    }
+
+    @Override
+    public void removeChild(int index)
+    {
+        this.children().remove(index);
+    }
+
+    @Override
+    public int numChildren()
+    {
+        return this.children().size();
+    }
+
+    @Override
+    public Tree getChild(int index)
+    {
+        return this.children().get(index);
+    }
+
+    @Override
+    public List<Tree> childList()
+    {
+        return Collections.unmodifiableList(this.children());
+    }
+
+    @Override
+    public List<Tree> getChildren()
+    {
+        return new ArrayList<Tree>(this.children());
+    }
+}
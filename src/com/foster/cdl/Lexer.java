@@ -6,6 +6,8 @@ Tokenizes source code
 package com.foster.cdl;
 
 import java.util.*;
+import java.io.IOException;
+import java.nio.file.Path;
 
 public class Lexer
 {
@@ -32,18 +34,149 @@ public class Lexer
         return superset;
     }
 
-    private String source;
+    // character classes, indexed by (ASCII) character; drive the scanner's start state
+    private static final byte OTHER = 0, END = 1, SPACE = 2, NEWLINE = 3, ALPHA = 4, DIGIT = 5, OPERATOR = 6, QUOTE = 7, SLASH = 8;
+    private static final byte[] CHARCLASS = new byte[128];
+    // transition tables for operator/grouping characters: the token a character forms on its own,
+    // and the two-character token it forms when followed by SECONDCHAR
+    private static final Tokentype[] SINGLE = new Tokentype[128];
+    private static final char[] SECONDCHAR = new char[128];
+    private static final Tokentype[] DOUBLE = new Tokentype[128];
+    // value of each character as a digit in radix up to 16; NOTDIGIT for anything else
+    private static final byte NOTDIGIT = 127;
+    private static final byte[] DIGITVALUE = new byte[128];
+
+    static
+    {
+        CHARCLASS[0] = END;
+        CHARCLASS[' '] = CHARCLASS['\t'] = CHARCLASS['\r'] = SPACE;
+        CHARCLASS['\n'] = NEWLINE;
+        CHARCLASS['"'] = QUOTE;
+        CHARCLASS['/'] = SLASH;
+        Arrays.fill(DIGITVALUE, NOTDIGIT);
+        for (char c = 'a'; c <= 'z'; c++)
+            CHARCLASS[c] = CHARCLASS[Character.toUpperCase(c)] = ALPHA;
+        for (char c = '0'; c <= '9'; c++)
+        {
+            CHARCLASS[c] = DIGIT;
+            DIGITVALUE[c] = (byte) (c - '0');
+        }
+        for (char c = 'a'; c <= 'f'; c++)
+            DIGITVALUE[c] = DIGITVALUE[Character.toUpperCase(c)] = (byte) (c - 'a' + 10);
+        operator(':', Tokentype.COLON, '=', Tokentype.COLEQ);
+        operator('=', Tokentype.EQ, '=', Tokentype.DOUBLEEQ);
+        operator('<', Tokentype.LT, '=', Tokentype.LTEQ);
+        operator('>', Tokentype.GT, '=', Tokentype.GTEQ);
+        operator('!', Tokentype.NOT, '=', Tokentype.NE);
+        operator('*', Tokentype.MUL, '*', Tokentype.EXP);
+        operator('+', Tokentype.ADD);
+        operator('-', Tokentype.SUB);
+        operator('%', Tokentype.MOD);
+        operator('^', Tokentype.XOR);
+        operator('&', Tokentype.AND);
+        operator('|', Tokentype.OR);
+        operator('?', Tokentype.QUESTION);
+        operator('(', Tokentype.LPAREN);
+        operator(')', Tokentype.RPAREN);
+        operator('{', Tokentype.LBRACE);
+        operator('}', Tokentype.RBRACE);
+        operator('[', Tokentype.LBRACKET);
+        operator(']', Tokentype.RBRACKET);
+        operator(';', Tokentype.EOL);
+        operator(',', Tokentype.COMMA);
+        operator('.', Tokentype.PERIOD);
+    }
+
+    /**
+    * Adds a single-character token to the transition tables
+    */
+    private static void operator(char c, Tokentype single)
+    {
+        CHARCLASS[c] = OPERATOR;
+        SINGLE[c] = single;
+    }
+
+    /**
+    * Adds a character that forms one token on its own and another when followed by second
+    */
+    private static void operator(char c, Tokentype single, char second, Tokentype pair)
+    {
+        operator(c, single);
+        SECONDCHAR[c] = second;
+        DOUBLE[c] = pair;
+    }
+
+    private static byte charClass(char c)
+    {
+        return c < 128 ? CHARCLASS[c] : OTHER;
+    }
+
+    private static int digitValue(char c)
+    {
+        return c < 128 ? DIGITVALUE[c] : NOTDIGIT;
+    }
+
+    private final CharSequence source;
+    private final int length;
+    private final ByteCharSequence bytes; // source when it's byte-backed, enabling the word-at-a-time scanning paths; null otherwise
 
     private int pos;
     private int line;
     private int col;
     private char currentchar;
 
-    Lexer(String source)
+    // span and position of the most recently scanned token
+    private int tokenstart;
+    private int tokenlength;
+    private int tokenline;
+    private int tokencol;
+    private int tokensymbol; // SymbolTable id of ID and RESERVED tokens, SymbolTable.NONE otherwise
+
+    /**
+    * Constructor
+    * @param source CharSequence to tokenize; a String, a CharBuffer, or a ByteCharSequence over a (mapped) file
+    */
+    Lexer(CharSequence source)
+    {
+        this(source, 0);
+    }
+
+    /**
+    * Constructor for source that doesn't start at the top of its file (e.g. a single component read by ComponentReader)
+    * @param source CharSequence to tokenize
+    * @param line int line of the file on which source starts, so positions in errors and tokens refer to the file
+    */
+    Lexer(CharSequence source, int line)
+    {
+        this(source, 0, source.length(), line, 0);
+    }
+
+    /**
+    * Constructor for a region of source (e.g. an arch body that was skipped on the first pass)
+    * @param start int offset of the first character to scan
+    * @param end int offset just past the last character to scan
+    * @param line int line of the file on which start lies
+    * @param col int column of start on that line
+    */
+    Lexer(CharSequence source, int start, int end, int line, int col)
     {
         this.source = source;
-        this.pos = this.line = this.col = 0;
-        this.currentchar = this.source.charAt(this.pos);
+        this.length = end;
+        this.bytes = source instanceof ByteCharSequence ? (ByteCharSequence) source : null;
+        this.pos = start;
+        this.line = line;
+        this.col = col;
+        this.currentchar = this.pos < this.length ? this.source.charAt(this.pos) : 0;
+    }
+
+    /**
+    * Creates a Lexer that scans a file in place through a read-only memory mapping
+    * @param file Path of the source file
+    * @return Lexer over the mapped contents of file
+    */
+    public static Lexer fromFile(Path file) throws IOException
+    {
+        return new Lexer(ByteCharSequence.map(file));
     }
 
     /**
@@ -55,6 +188,43 @@ public class Lexer
         return this.line;
     }
 
+    /**
+    * Accessor methods for the span of the most recently scanned token
+    */
+    public int tokenStart()
+    {
+        return this.tokenstart;
+    }
+
+    public int tokenLength()
+    {
+        return this.tokenlength;
+    }
+
+    public int tokenLine()
+    {
+        return this.tokenline;
+    }
+
+    public int tokenCol()
+    {
+        return this.tokencol;
+    }
+
+    public int tokenSymbol()
+    {
+        return this.tokensymbol;
+    }
+
+    /**
+    * Accessor method for the source being scanned (tokens resolve their text against it lazily)
+    * @return this.source
+    */
+    public CharSequence getSource()
+    {
+        return this.source;
+    }
+
     /**
     * Retrieves the next character from source and advances the character pointer
     * @param count specifies the amount by which to increment the character pointer
@@ -64,7 +234,7 @@ public class Lexer
     {
         this.pos += count;
         this.col += count;
-        if (this.pos > this.source.length() - 1)
+        if (this.pos > this.length - 1)
         {
             this.currentchar = 0;
             return;
@@ -88,7 +258,7 @@ public class Lexer
     private char peek()
     {
         int peekpos = this.pos + 1;
-        if (peekpos > this.source.length() - 1)
+        if (peekpos > this.length - 1)
             return 0;
         return this.source.charAt(peekpos);
     }
@@ -102,26 +272,120 @@ public class Lexer
         throw new SyntaxError(String.format("%s at col %d on line %d.", message, col + 1, line + 1));
     }
 
-    private static boolean isAlpha(char c)
+    /**
+    * Compares a span of source against a string without allocating
+    * @param word String to compare against
+    * @param start int offset of the span in source
+    * @param len int length of the span
+    * @return true if the span contains exactly the characters of word
+    */
+    private boolean spanEquals(String word, int start, int len)
     {
-        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+        if (word.length() != len)
+            return false;
+        for (int i = 0; i < len; i++)
+        {
+            if (this.source.charAt(start + i) != word.charAt(i))
+                return false;
+        }
+        return true;
     }
 
-    private static boolean isNum(char c)
+    /**
+    * Moves the character pointer forward to target in one step, updating line and col for any newlines skipped over
+    * @param target int index to move to (clamped to the end of source)
+    */
+    private void jump(int target)
     {
-        return (c >= '0' && c <= '9');
+        if (target > this.length)
+            target = this.length;
+        int newlines = this.countNewlines(this.pos, target);
+        if (newlines > 0)
+        {
+            this.line += newlines;
+            int lastnewline = target - 1;
+            while (this.source.charAt(lastnewline) != '\n')
+                lastnewline--;
+            this.col = target - lastnewline - 1;
+        }
+        else
+            this.col += target - this.pos;
+        this.pos = target;
+        this.currentchar = this.pos < this.length ? this.source.charAt(this.pos) : 0;
     }
-    
-    private static boolean isSpace(char c)
+
+    /**
+    * Bulk scanning primitives: word-at-a-time on byte-backed sources, with a scalar fallback for any other CharSequence.
+    * Both stop at the end of the lexer's region (this.length), not the end of source
+    * @return int index found, or this.length if there is none
+    */
+    private int indexOf(char c, int from)
+    {
+        if (this.bytes != null)
+            return this.bytes.indexOf(c, from, this.length);
+        for (int i = from; i < this.length; i++)
+        {
+            if (this.source.charAt(i) == c)
+                return i;
+        }
+        return this.length;
+    }
+
+    private int skipSpaces(int from)
+    {
+        if (this.bytes != null)
+            return this.bytes.skipSpaces(from, this.length);
+        for (int i = from; i < this.length; i++)
+        {
+            byte charclass = charClass(this.source.charAt(i));
+            if (charclass != SPACE && charclass != NEWLINE)
+                return i;
+        }
+        return this.length;
+    }
+
+    private int countNewlines(int from, int to)
+    {
+        if (this.bytes != null)
+            return this.bytes.countNewlines(from, to);
+        int count = 0;
+        for (int i = from; i < to; i++)
+        {
+            if (this.source.charAt(i) == '\n')
+                count++;
+        }
+        return count;
+    }
+
+    /**
+    * Marks the span of the token being scanned
+    * @param start int offset of the first character of the token's text
+    * @param len int length of the token's text
+    */
+    private void mark(int start, int len)
+    {
+        this.tokenstart = start;
+        this.tokenlength = len;
+    }
+
+    /**
+    * Marks a fixed-length token starting at the current character and advances past it
+    * @param type Tokentype of the token
+    * @param len int length of the token
+    * @return type
+    */
+    private Tokentype fixed(Tokentype type, int len)
     {
-        return (c == ' ' || c == '\t' || c == '\n');
+        this.mark(this.pos, len);
+        this.advance(len);
+        return type;
     }
 
     /**
-    * Parses vector literals
-    * @return Token for (bin|hex)vec literal
+    * Scans vector literals
+    * @return (bin|hex)vec literal type, with the span covering the digits between the quotes
     */
-    private Token getVec(Tokentype type)
+    private Tokentype scanVec(Tokentype type)
     {
         if (type == Tokentype.HEXVECLITERAL)
             this.advance(2);
@@ -130,269 +394,245 @@ public class Lexer
         else
             error("Internal Error: Invalid Vector Type", this.col, this.line);
 
-        int stringend = this.source.indexOf("\"", this.pos);
-        String value = this.source.substring(this.pos, stringend);
-        this.advance(stringend - this.pos + 1); //skip over vector
-        return new Token(type, value);
-
+        int start = this.pos;
+        int end = this.indexOf('"', start);
+        if (end >= this.length)
+            error("Unterminated vector literal", this.tokencol, this.tokenline);
+        this.mark(start, end - start);
+        this.jump(end + 1); // skip over closing quote
+        return type;
     }
 
     /**
-    * Parses integer literals
-    * @return Token for (bin|hex|dec)int literal
+    * Scans integer literals
+    * @return (bin|hex|dec)int literal type, with the span covering the digits after any radix prefix
     */
-    private Token getInt(Tokentype type)
+    private Tokentype scanInt(Tokentype type)
     {
         if (type == Tokentype.HEXINTLITERAL || type == Tokentype.BININTLITERAL)
             this.advance(2);
         else if (type != Tokentype.DECINTLITERAL)
             error("Internal Error: Invalid Integer Type", this.col, this.line);
 
-        List<Character> chars = new ArrayList<Character>();
-        char upperbound = type == Tokentype.BININTLITERAL ? '1' : '9';
-        while ((this.currentchar >= '0' && this.currentchar <= upperbound)
-                || (type == Tokentype.HEXINTLITERAL && (isNum(this.currentchar)
-                    || (this.currentchar >= 'A' && this.currentchar <= 'F')
-                    || (this.currentchar >= 'a' && this.currentchar <= 'f'))))
-        {
-            chars.add(new Character(this.currentchar));
+        int radix = type == Tokentype.HEXINTLITERAL ? 16 : type == Tokentype.BININTLITERAL ? 2 : 10;
+        int start = this.pos;
+        while (digitValue(this.currentchar) < radix)
             this.advance();
-        }
-        StringBuilder builder = new StringBuilder(chars.size());
-        for (Character c : chars)
-            builder.append(c);
-        String value = builder.toString();
-        return new Token(type, value);
+        this.mark(start, this.pos - start);
+        return type;
     }
     
     /**
-    * Parses alphanumeric strings
-    * @return Token for alphanumeric string
+    * Scans alphanumeric strings
+    * @return ID, RESERVED or BOOLLITERAL
     */
-    private Token getId()
+    private Tokentype scanId()
     {
-        List<Character> chars = new ArrayList<Character>();
-        while (isAlpha(this.currentchar) || isNum(this.currentchar)) // first character is always alpha; this method is only called if currentchar is alpha
+        int start = this.pos;
+        byte charclass = charClass(this.currentchar);
+        while (charclass == ALPHA || charclass == DIGIT) // first character is always alpha; this method is only called if currentchar is alpha
         {
-            chars.add(new Character(this.currentchar));
             this.advance();
+            charclass = charClass(this.currentchar);
         }
-        StringBuilder builder = new StringBuilder(chars.size());
-        for (Character c : chars)
-            builder.append(c);
-        String value = builder.toString();
-        if (value.equals("true") || value.equals("false"))
-            return new Token(Tokentype.BOOLLITERAL, value);
-        if (Lexer.RESERVEDIDS.contains(value))
-            return new Token(Tokentype.RESERVED, value);
-        return new Token(Tokentype.ID, value);
+        int len = this.pos - start;
+        this.mark(start, len);
+        Tokentype type = this.classifyId(start, len);
+        if (type != Tokentype.BOOLLITERAL)
+            this.tokensymbol = SymbolTable.intern(this.source, start, len);
+        return type;
     }
 
     /**
-    * Rerieves the next token from source
-    * @return next Token
+    * Recognizes reserved words and boolean literals with a trie keyed on length, then on distinguishing characters.
+    * Each path leads to at most one candidate word, so an identifier costs one switch dispatch and at most one comparison.
+    * Must be kept in sync with RESERVEDIDS (checked by the unit test)
+    * @param start int offset of the identifier in source
+    * @param len int length of the identifier
+    * @return RESERVED, BOOLLITERAL or ID
     */
-    public Token getNextToken()
+    private Tokentype classifyId(int start, int len)
     {
-        while (this.currentchar != 0)
+        String word = null;
+        Tokentype type = Tokentype.RESERVED;
+        char first = this.source.charAt(start);
+        switch (len)
         {
-            // skip whitespace
-            while (isSpace(this.currentchar))
-            {
-                if (this.currentchar == '\n')
+            case 2:
+                word = "or";
+                break;
+            case 3:
+                switch (first)
                 {
-                    this.line++;
-                    this.col = 0;
+                    case 'i': word = "int"; break;
+                    case 'v': word = "vec"; break;
+                    case 'a': word = "and"; break;
+                    case 'x': word = "xor"; break;
+                    case 'n':
+                        switch (this.source.charAt(start + 2))
+                        {
+                            case 't': word = "not"; break;
+                            case 'r': word = "nor"; break;
+                            case 'w': word = "new"; break;
+                        }
+                        break;
                 }
-                this.advance();
-            }
-            // in case skipping whitespace put us at the end of the file
-            if (this.currentchar == 0)
                 break;
+            case 4:
+                switch (first)
+                {
+                    case 'b': word = "bool"; break;
+                    case 'n': word = "nand"; break;
+                    case 'x': word = "xnor"; break;
+                    case 'p': word = "port"; break;
+                    case 'a': word = "arch"; break;
+                    case 't': word = "true"; type = Tokentype.BOOLLITERAL; break;
+                }
+                break;
+            case 5:
+                switch (first)
+                {
+                    case 'i': word = "input"; break;
+                    case 'c': word = "const"; break;
+                    case 'f': word = "false"; type = Tokentype.BOOLLITERAL; break;
+                }
+                break;
+            case 6:
+                switch (first)
+                {
+                    case 'o': word = "output"; break;
+                    case 's': word = "signal"; break;
+                }
+                break;
+            case 8:
+                word = "variable";
+                break;
+            case 9:
+                word = "component";
+                break;
+        }
+        return word != null && this.spanEquals(word, start, len) ? type : Tokentype.ID;
+    }
 
-            // skip comments
-            if (this.currentchar == '/' && this.peek() == '*')
-            {
-                this.advance(2);
-                while (!(this.currentchar == '*' && this.peek() == '/'))
-                    this.advance();
-            }
-            if (this.currentchar == '/' && this.peek() == '/')
-            {
-                while (this.currentchar != '\n')
-                    this.advance();
-                continue;
-            }
+    /**
+    * Rerieves the next token from source
+    * @return next Token; its text is only materialized when Token.value() is called
+    */
+    public Token getNextToken()
+    {
+        Tokentype type = this.scan();
+        return new Token(type, this.source, this.tokenstart, this.tokenlength, this.tokenline, this.tokencol, this.tokensymbol);
+    }
 
-            // tokenize fixed-length strings
-            switch (this.currentchar)
+    /**
+    * Scans the next token from source without allocating; its span and position are available through
+    * tokenStart(), tokenLength(), tokenLine() and tokenCol() until the next call
+    * @return type of the next token
+    */
+    public Tokentype scan()
+    {
+        while (true)
+        {
+            char c = this.currentchar;
+            this.tokenline = this.line;
+            this.tokencol = this.col;
+            this.tokensymbol = SymbolTable.NONE;
+            switch (charClass(c))
             {
-                case ':':
-                    if (this.peek() == '=')
-                    {
-                        this.advance(2);
-                        return new Token(Tokentype.COLEQ, ":=");
-                    }
-                    else
-                    {
-                        this.advance();
-                        return new Token(Tokentype.COLON, ":");
-                    }
-
-                case '=':
-                    if (this.peek() == '=')
-                    {
-                        this.advance(2);
-                        return new Token(Tokentype.DOUBLEEQ, "==");
-                    }
-                    else
-                    {
-                        this.advance();
-                        return new Token(Tokentype.EQ, "=");
-                    }
-
-                case '<':
-                    if (this.peek() == '=')
-                    {
-                        this.advance(2);
-                        return new Token(Tokentype.LTEQ, "<=");
-                    }
-                    else
-                    {
-                        this.advance();
-                        return new Token(Tokentype.LT, "<");
-                    }
-
-                case '>':
-                    if (this.peek() == '=')
-                    {
-                        this.advance(2);
-                        return new Token(Tokentype.GTEQ, ">=");
-                    }
-                    else
-                    {
-                        this.advance();
-                        return new Token(Tokentype.GT, ">");
-                    }
-
-                case '!':
-                    if (this.peek() == '=')
-                    {
-                        this.advance(2);
-                        return new Token(Tokentype.NE, "!=");
-                    }
-                    else
-                    {
-                        this.advance();
-                        return new Token(Tokentype.NOT, "!");
-                    }
-
-                case '+':
-                    this.advance();
-                    return new Token(Tokentype.ADD, "+");
-
-                case '-':
-                    this.advance();
-                    return new Token(Tokentype.SUB, "-");
-
-                case '*':
+                case SPACE:
+                case NEWLINE:
+                    this.jump(this.skipSpaces(this.pos));
+                    break;
+                case SLASH:
                     if (this.peek() == '*')
                     {
-                        this.advance(2);
-                        return new Token(Tokentype.EXP, "**");
+                        this.skipBlockComment();
+                        break;
                     }
-                    else
+                    if (this.peek() == '/')
                     {
-                        this.advance();
-                        return new Token(Tokentype.MUL, "*");
+                        this.skipLineComment();
+                        break;
                     }
-
-                case '/':
-                    this.advance();
-                    return new Token(Tokentype.DIV, "/");
-
-                case '%':
-                    this.advance();
-                    return new Token(Tokentype.MOD, "%");
-
-                case '^':
-                    this.advance();
-                    return new Token(Tokentype.XOR, "^");
-
-                case '&':
-                    this.advance();
-                    return new Token(Tokentype.AND, "&");
-                    
-                case '|':
-                    this.advance();
-                    return new Token(Tokentype.OR, "|");
-
-                case '?':
-                    this.advance();
-                    return new Token(Tokentype.QUESTION, "?");
-
-                case '(':
-                    this.advance();
-                    return new Token(Tokentype.LPAREN, "(");
-
-                case '{':
-                    this.advance();
-                    return new Token(Tokentype.LBRACE, "{");
-
-                case '[':
-                    this.advance();
-                    return new Token(Tokentype.LBRACKET, "[");
-
-                case ')':
-                    this.advance();
-                    return new Token(Tokentype.RPAREN, ")");
-
-                case '}':
-                    this.advance();
-                    return new Token(Tokentype.RBRACE, "}");
-
-                case ']':
-                    this.advance();
-                    return new Token(Tokentype.RBRACKET, "]");
-
-                case ';':
-                    this.advance();
-                    return new Token(Tokentype.EOL, ";");
-
-                case ',':
-                    this.advance();
-                    return new Token(Tokentype.COMMA, ",");
-
-                case '.':
-                    this.advance();
-                    return new Token(Tokentype.PERIOD, ".");
+                    return this.fixed(Tokentype.DIV, 1);
+                case OPERATOR:
+                    if (DOUBLE[c] != null && this.peek() == SECONDCHAR[c])
+                        return this.fixed(DOUBLE[c], 2);
+                    return this.fixed(SINGLE[c], 1);
+                case ALPHA:
+                    if (c == 'x' && this.peek() == '"')
+                        return this.scanVec(Tokentype.HEXVECLITERAL);
+                    return this.scanId();
+                case QUOTE:
+                    return this.scanVec(Tokentype.BINVECLITERAL);
+                case DIGIT:
+                    if (this.peek() == 'x')
+                        return this.scanInt(Tokentype.HEXINTLITERAL);
+                    if (this.peek() == 'b')
+                        return this.scanInt(Tokentype.BININTLITERAL);
+                    return this.scanInt(Tokentype.DECINTLITERAL);
+                case END:
+                    this.mark(this.pos > this.length ? this.length : this.pos, 0);
+                    return Tokentype.EOF;
+                default:
+                    error("Invalid Character", this.col, this.line);
             }
+        }
+    }
 
-            // tokenize vector literals
-            if (this.currentchar == 'x' && this.peek() == '"')
-                return this.getVec(Tokentype.HEXVECLITERAL);
-            if (this.currentchar == '"')
-                return this.getVec(Tokentype.BINVECLITERAL);
-
-            // tokenize identifiers
-            if (isAlpha(this.currentchar))
-                return this.getId();
-
-            if (this.currentchar >= '0' && this.currentchar <= '9')
+    /**
+    * Skips the rest of a brace-delimited block without tokenizing it: called right after its LBRACE has been scanned,
+    * it moves past everything up to the matching closing brace, ignoring braces in comments and vector literals
+    * @return type of the next token: RBRACE for the closing brace, or EOF if the block is unterminated
+    */
+    public Tokentype skipBlock()
+    {
+        int depth = 1;
+        int i = this.pos;
+        while (i < this.length)
+        {
+            char c = this.source.charAt(i);
+            if (c == '{')
+                depth++;
+            else if (c == '}' && --depth == 0)
+                break;
+            else if (c == '"')
+                i = this.indexOf('"', i + 1);
+            else if (c == '/' && i + 1 < this.length && this.source.charAt(i + 1) == '/')
+                i = this.indexOf('\n', i);
+            else if (c == '/' && i + 1 < this.length && this.source.charAt(i + 1) == '*')
             {
-                if (this.peek() == 'x')
+                i += 2;
+                do
                 {
-                    return this.getInt(Tokentype.HEXINTLITERAL);
-                }
-                else if (this.peek() == 'b')
-                {
-                    return this.getInt(Tokentype.BININTLITERAL);
-                }
-                return this.getInt(Tokentype.DECINTLITERAL);
+                    i = this.indexOf('*', i) + 1;
+                } while (i < this.length && this.source.charAt(i) != '/');
             }
-            error("Invalid Character", this.col, this.line);
+            i++;
         }
-        return new Token(Tokentype.EOF, "");
+        this.jump(i);
+        return this.scan();
+    }
+
+    /**
+    * Skips a block comment, including the closing delimiter (or up to the end of source if it's unterminated)
+    */
+    private void skipBlockComment()
+    {
+        int end = this.pos + 2;
+        do
+        {
+            end = this.indexOf('*', end) + 1;
+        } while (end < this.length && this.source.charAt(end) != '/');
+        this.jump(end + 1);
+    }
+
+    /**
+    * Skips a line comment, stopping at the newline so it's counted by scan()
+    */
+    private void skipLineComment()
+    {
+        this.jump(this.indexOf('\n', this.pos));
     }
 
     /**
@@ -404,6 +644,25 @@ public class Lexer
         String source = "hi 10 0b101 0xabcd \"101101\" x\"abc103\" //comment lol \n" + 
                         "true false /*multiline comments are cool*/ := = == < > <= " +
                         ">= != + - * / % ** & | ^ ! & : ? ( ) { } [ ] ; , .";
+        for (String word : RESERVEDIDS)
+        {
+            if (new Lexer(word).scan() != Tokentype.RESERVED)
+                System.out.println(String.format("reserved word (%s) not recognized", word));
+        }
+        // a region of a byte-backed source must stop at its own end, not at the end of the buffer
+        ByteCharSequence bytes = new ByteCharSequence("a x\"12 \n\n b\"".getBytes());
+        Lexer region = new Lexer(bytes, 0, 6, 0, 0);
+        try
+        {
+            region.getNextToken();
+            System.out.println(String.format("vector literal cut off by the end of a region not reported (got %s)", region.getNextToken()));
+        }
+        catch (SyntaxError e)
+        {
+        }
+        region = new Lexer(new ByteCharSequence("a  \n\n b".getBytes()), 0, 3, 0, 0);
+        if (region.getNextToken().type != Tokentype.ID || region.getNextToken().type != Tokentype.EOF || region.getline() != 0)
+            System.out.println("whitespace at the end of a region not skipped correctly");
         Lexer lexer = new Lexer(source);
         while (true)
         {
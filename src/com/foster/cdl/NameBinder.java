@@ -0,0 +1,128 @@
+/*
+NameBinder.java - Reed Foster
+Resolves every identifier and compound (instance.port) reference in a component once, and records the
+declaration each one refers to on its node, so later phases read the binding instead of searching for it
+*/
+
+package com.foster.cdl;
+
+import java.util.*;
+
+class NameBinder
+{
+    private final Map<String, Component> components;
+
+    /**
+    * Constructor
+    * @param components Map of every component by name, for resolving references to the ports and generics of subcomponents
+    */
+    NameBinder(Map<String, Component> components)
+    {
+        this.components = components;
+    }
+
+    /**
+    * Accessor method for the components references are resolved against
+    * @return Component with the given name, or null if there isn't one
+    */
+    public Component getComponent(String name)
+    {
+        return this.components.get(name);
+    }
+
+    /**
+    * Binds every reference in a component
+    * @param component Component to bind
+    * @throws NameError if a reference has no declaration
+    */
+    public void bind(Component component) throws NameError
+    {
+        this.bind(component, component.ast);
+    }
+
+    /**
+    * Binds the references in a subtree:
+    *  + IDENTIFIER nodes to the signal, port, generic, or constant they name
+    *  + instance.port nodes (and their port identifier) to the port declaration of the subcomponent, and the instance identifier to the subcomponent's declaration
+    *  + the left-hand side of each generic assignment to the generic declaration of the subcomponent
+    * The subtree is walked with an explicit stack (in preorder, so the first undeclared reference is the one reported),
+    * so arbitrarily deep expressions can't overflow the call stack
+    * @param node Tree reference to subtree to be bound (initially called with root node of AST)
+    */
+    void bind(Component component, Tree node) throws NameError
+    {
+        Deque<Tree> stack = new ArrayDeque<Tree>();
+        stack.push(node);
+        while (!stack.isEmpty())
+        {
+            node = stack.pop();
+            if (node.operator == Operator.MEMBER)
+                this.member(component, node);
+            else if (node.nodetype == Nodetype.IDENTIFIER)
+                this.identifier(component, node);
+            else if (node.nodetype == Nodetype.COMPDEC)
+            {
+                // generic names on the left belong to the subcomponent, expressions on the right to this component
+                Component subcomponent = this.components.get(node.attributes.get("type"));
+                for (Tree genericAssign : node.childList())
+                {
+                    this.generic(subcomponent, genericAssign.getChild(0));
+                    this.bind(component, genericAssign.getChild(1)); // (an expression, so this doesn't nest any further)
+                }
+            }
+            else
+            {
+                List<Tree> children = node.childList();
+                for (int i = children.size() - 1; i >= 0; i--) // pushed in reverse, so children are bound in order
+                    stack.push(children.get(i));
+            }
+        }
+    }
+
+    /**
+    * Binds an IDENTIFIER node
+    * @return DeclaredIdentifier the identifier refers to
+    */
+    DeclaredIdentifier identifier(Component component, Tree node) throws NameError
+    {
+        DeclaredIdentifier declaration = component.lookup(node.symbol);
+        if (declaration == null)
+            throw new NameError(String.format("undeclared identifier (%s)", node.attributes.get("name")));
+        node.bind(declaration);
+        return declaration;
+    }
+
+    /**
+    * Binds an instance.port node
+    * @return DeclaredIdentifier declaration of the port
+    */
+    DeclaredIdentifier member(Component component, Tree node) throws NameError
+    {
+        Tree compinst = node.getChild(0);
+        Tree port = node.getChild(1);
+        DeclaredIdentifier subcomp = component.getSubcomponent(compinst.symbol);
+        if (subcomp == null)
+            throw new NameError(String.format("component (%s) not delcared", compinst.attributes.get("name")));
+        DeclaredIdentifier portdec = this.components.get(subcomp.type).getPort(port.symbol);
+        if (portdec == null)
+            throw new NameError(String.format("no defintion for port (%s) found in component (%s)", port.attributes.get("name"), subcomp.name));
+        compinst.bind(subcomp);
+        port.bind(portdec);
+        node.bind(portdec);
+        return portdec;
+    }
+
+    /**
+    * Binds the generic name on the left-hand side of a generic assignment
+    * @param subcomponent Component being instantiated
+    * @return DeclaredIdentifier declaration of the generic
+    */
+    DeclaredIdentifier generic(Component subcomponent, Tree name) throws NameError
+    {
+        DeclaredIdentifier generic = subcomponent.getGeneric(name.symbol);
+        if (generic == null)
+            throw new NameError(String.format("no definition for generic (%s) found in component (%s)", name.attributes.get("name"), subcomponent.name));
+        name.bind(generic);
+        return generic;
+    }
+}
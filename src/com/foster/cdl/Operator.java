@@ -0,0 +1,98 @@
+/*
+Operator.java - Reed Foster
+Enum definitions for the operators of TERNARYOP, BINARYOP, and UNARYOP nodes
+*/
+
+package com.foster.cdl;
+
+import java.util.*;
+
+public enum Operator
+{
+    // expression operators
+    COND("?", 3), SLICE("[]", 3),
+    LT("<", 2), GT(">", 2), LTEQ("<=", 2), GTEQ(">=", 2), EQ("=", 2), NE("!=", 2), // relational
+    ADD("+", 2), SUB("-", 2), MUL("*", 2), DIV("/", 2), MOD("%", 2), EXP("**", 2), // arithmetic
+    AND("&", 2), OR("|", 2), XOR("^", 2), // boolean (AND is also concatenation)
+    BITAND("and", 2), BITOR("or", 2), BITNAND("nand", 2), BITNOR("nor", 2), BITXOR("xor", 2), BITXNOR("xnor", 2), // bitwise
+    NOT("!", 1), NEG("-", 1), BITNOT("not", 1), PAREN("()", 1),
+    // statement operators; declared last so spellings they share with expression operators look up the expression operator
+    ASSIGN("<=", 2), GENERICASSIGN("=", 2), MEMBER(".", 2);
+
+    private static final Map<String, Operator> UNARY = new HashMap<String, Operator>();
+    private static final Map<String, Operator> BINARY = new HashMap<String, Operator>();
+    static
+    {
+        for (Operator op : values())
+        {
+            if (op.arity == 1)
+                UNARY.putIfAbsent(op.spelling, op);
+            else if (op.arity == 2)
+                BINARY.putIfAbsent(op.spelling, op);
+        }
+    }
+
+    private final String spelling; // CDL spelling, stored as the node's "type" attribute
+    public final int arity;
+
+    Operator(String spelling, int arity)
+    {
+        this.spelling = spelling;
+        this.arity = arity;
+    }
+
+    /**
+    * Gets the type of node this operator is stored in
+    */
+    public Nodetype nodetype()
+    {
+        return this.arity == 1 ? Nodetype.UNARYOP : this.arity == 2 ? Nodetype.BINARYOP : Nodetype.TERNARYOP;
+    }
+
+    /**
+    * Gets the unary expression operator with a given spelling
+    * @return Operator, or null if there is none
+    */
+    public static Operator unary(String spelling)
+    {
+        return UNARY.get(spelling);
+    }
+
+    /**
+    * Gets the binary expression operator with a given spelling ("<=" is LTEQ, not ASSIGN)
+    * @return Operator, or null if there is none
+    */
+    public static Operator binary(String spelling)
+    {
+        return BINARY.get(spelling);
+    }
+
+    /**
+    * Gets an operator of a node from its spelling, for nodes built without one
+    * @param nodetype Nodetype TERNARYOP, BINARYOP, or UNARYOP
+    * @return Operator, or null if nodetype isn't an operator node or spelling isn't one of its operators
+    */
+    public static Operator of(Nodetype nodetype, String spelling)
+    {
+        switch (nodetype)
+        {
+            case TERNARYOP:
+                return "?".equals(spelling) ? COND : "[]".equals(spelling) ? SLICE : null;
+            case BINARYOP:
+                return ".".equals(spelling) ? MEMBER : binary(spelling);
+            case UNARYOP:
+                return unary(spelling);
+            default:
+                return null;
+        }
+    }
+
+    /**
+    * Returns the CDL spelling, so error messages and generated code read the same as the source
+    */
+    @Override
+    public String toString()
+    {
+        return this.spelling;
+    }
+}
@@ -9,13 +9,93 @@ import java.util.*;
 
 public class Parser
 {
-    private Token currenttok;
-    private Lexer lexer;
+    // operator precedences, loosest to tightest
+    private static final int NONE = 0, BOOL = 1, NOT = 2, RELATION = 3, SUM = 4, PRODUCT = 5, NEGATE = 6, POWER = 7;
+    private static final int[] PRECEDENCE = new int[Operator.values().length]; // indexed by Operator ordinal
+    private static final Operator[] INFIX = new Operator[Tokentype.values().length]; // binary operator of each symbol token, indexed by Tokentype ordinal
+    static
+    {
+        precedence(BOOL, Operator.OR, Operator.XOR);
+        precedence(RELATION, Operator.LT, Operator.GT, Operator.LTEQ, Operator.GTEQ, Operator.EQ, Operator.NE);
+        precedence(SUM, Operator.ADD, Operator.SUB, Operator.AND, Operator.BITOR, Operator.BITNOR);
+        precedence(PRODUCT, Operator.MUL, Operator.DIV, Operator.MOD, Operator.BITAND, Operator.BITNAND, Operator.BITXOR, Operator.BITXNOR);
+        precedence(POWER, Operator.EXP);
+        Tokentype[] tokens = {Tokentype.LT, Tokentype.GT, Tokentype.LTEQ, Tokentype.GTEQ, Tokentype.EQ, Tokentype.NE,
+            Tokentype.ADD, Tokentype.SUB, Tokentype.MUL, Tokentype.DIV, Tokentype.MOD, Tokentype.EXP, Tokentype.AND, Tokentype.OR, Tokentype.XOR};
+        Operator[] operators = {Operator.LT, Operator.GT, Operator.LTEQ, Operator.GTEQ, Operator.EQ, Operator.NE,
+            Operator.ADD, Operator.SUB, Operator.MUL, Operator.DIV, Operator.MOD, Operator.EXP, Operator.AND, Operator.OR, Operator.XOR};
+        for (int i = 0; i < tokens.length; i++)
+            INFIX[tokens[i].ordinal()] = operators[i];
+    }
+
+    private static void precedence(int precedence, Operator ...operators)
+    {
+        for (Operator op : operators)
+            PRECEDENCE[op.ordinal()] = precedence;
+    }
+
+    private final TokenBuffer tokens;
+    private int index; // index of the current token in tokens
+    private final boolean lazyarch; // if true, arch bodies are skipped and parsed on demand by LazyArch
+
+    // operand and operator stacks of operatorExpression, shared by nested expressions (each works above the tops it started with)
+    private Tree[] operands = new Tree[16];
+    private int operandtop = 0;
+    private Operator[] operators = new Operator[16];
+    private int[] precedences = new int[16];
+    private int operatortop = 0;
     
     Parser(Lexer lexer)
     {
-        this.lexer = lexer;
-        this.currenttok = this.lexer.getNextToken();
+        this(new TokenBuffer(lexer));
+    }
+
+    Parser(TokenBuffer tokens)
+    {
+        this(tokens, false);
+    }
+
+    /**
+    * @param lazyarch boolean if true, arch bodies are skipped by brace matching (without being parsed, or tokenized if tokens is lazy)
+    */
+    Parser(TokenBuffer tokens, boolean lazyarch)
+    {
+        this.tokens = tokens;
+        this.index = 0;
+        this.lazyarch = lazyarch;
+    }
+
+    /**
+    * Gets the type of the current token
+    */
+    private Tokentype current()
+    {
+        return this.tokens.type(this.index);
+    }
+
+    /**
+    * Gets the type of the token k positions after the current one (EOF past the end of the buffer)
+    * @param k int lookahead distance
+    */
+    private Tokentype lookahead(int k)
+    {
+        return this.tokens.type(this.index + k);
+    }
+
+    /**
+    * Gets the SymbolTable id of the current token (SymbolTable.NONE unless it's an identifier or reserved word)
+    */
+    private int symbol()
+    {
+        return this.tokens.symbol(this.index);
+    }
+
+    /**
+    * Gets the text of the current token
+    */
+    private String value()
+    {
+        return this.tokens.text(this.index);
     }
 
     /**
@@ -56,54 +136,44 @@ public class Parser
     */
     private void eat(Tokentype type)
     {
-        if (this.currenttok.type == type)
-            this.currenttok = lexer.getNextToken();
+        if (this.current() == type)
+            this.index++;
         else
-            error("Unexpected Token", String.format("Expected (%s), got (%s)", type.toString(), this.currenttok.value.toString()), this.lexer.getline());
+            this.error("Unexpected Token", String.format("Expected (%s), got (%s)", type.toString(), this.value()));
     }
 
     /**
     * Advanced eat method; verifies that the current token's value matches at least one of the elements of values
     * @param type same as normal eat method
-    * @param values list of values to check against currenttok.value
+    * @param values list of values to check against the current token's value
     */
     private void eat(Tokentype type, String ...values)
     {
-        if (match(this.currenttok.value, values))
+        if (match(this.value(), values))
             this.eat(type);
         else
-            error("Unexpected Token", String.format("Expected (%s), got (%s)", values.toString(), this.currenttok.value), this.lexer.getline());
+            this.error("Unexpected Token", String.format("Expected (%s), got (%s)", Arrays.toString(values), this.value()));
     }
 
     /**
     * eatType verifies that the current token is reserved and a valid type string
     * calls method eat with the parameters Tokentype.RESERVED and "int", "vec", and "bool"
+    * @return Datatype named by the eaten token
     */
-    private void eatType()
+    private Datatype eatType()
     {
+        Datatype type = Datatype.of(this.value());
         this.eat(Tokentype.RESERVED, "int", "vec", "bool");
+        return type;
     }
 
     /**
-    * Error thrower methods
+    * Error thrower method; reports the exact source position of the current token
     * @throws SyntaxError
     */
-    private static void error(String type, String message, int line) throws SyntaxError
+    private void error(String type, String message) throws SyntaxError
     {
-        throw new SyntaxError(String.format("%s on line %d. %s", type, line + 1, message));
-    }
-
-    /**
-    * Initializes a hashmap with one key and one value
-    * @param k key String
-    * @param v value String
-    * @return HashMap containing (k -> v)
-    */
-    private Map<String, String> quickHashMap(String k, String v)
-    {
-        Map<String, String> hm = new HashMap<String, String>();
-        hm.put(k, v);
-        return hm;
+        throw new SyntaxError(String.format("%s at col %d on line %d. %s", type, this.tokens.col(this.index) + 1, this.tokens.line(this.index) + 1, message));
     }
 
     public Tree parse()
@@ -121,23 +191,24 @@ public class Parser
         Map<String, String> attributes = new HashMap<String, String>();
 
         this.eat(Tokentype.RESERVED, "component");
-        String name = this.currenttok.value;
+        String name = this.value();
+        int symbol = this.symbol();
         this.eat(Tokentype.ID);
         this.eat(Tokentype.LBRACE);
-        while (this.currenttok.type != Tokentype.RBRACE)
+        while (this.current() != Tokentype.RBRACE)
         {
-            if (Lexer.TYPE.contains(this.currenttok.value))
+            if (Lexer.TYPE.contains(this.value()))
                 children.add(this.gendec());
-            else if (this.currenttok.value.equals("port"))
+            else if (this.value().equals("port"))
                 children.add(this.portdec());
-            else if (this.currenttok.value.equals("arch"))
-                children.add(this.arch());
+            else if (this.value().equals("arch"))
+                children.add(this.lazyarch ? this.lazyArch() : this.arch());
             else
-                error("Unexpected Token", String.format("Expected RESERVED, PORT, or ARCH, got (%s)", this.currenttok.value.toString()), this.lexer.getline());
+                this.error("Unexpected Token", String.format("Expected RESERVED, PORT, or ARCH, got (%s)", this.value()));
         }
         this.eat(Tokentype.RBRACE);
         attributes.put("name", name);
-        return new Tree(Nodetype.COMPONENT, attributes, children);
+        return new Tree(Nodetype.COMPONENT, attributes, children, symbol);
     }
 
     /**
@@ -148,18 +219,19 @@ public class Parser
     {
         List<Tree> children = new ArrayList<Tree>();
         Map<String, String> attributes = new HashMap<String, String>();
-        attributes.put("type", this.currenttok.value);
-        this.eatType();
-        if (attributes.get("type").equals("vec"))
+        Datatype type = this.eatType();
+        attributes.put("type", type.toString());
+        if (type == Datatype.VEC)
         {
             this.eat(Tokentype.LBRACKET);
             children.add(this.expression());
             this.eat(Tokentype.RBRACKET);
         }
-        attributes.put("name", this.currenttok.value);
+        attributes.put("name", this.value());
+        int symbol = this.symbol();
         this.eat(Tokentype.ID);
         this.eat(Tokentype.EOL);
-        return new Tree(Nodetype.GENDEC, attributes, children);
+        return new Tree(Nodetype.GENDEC, attributes, children, symbol);
     }
 
     /**
@@ -172,7 +244,7 @@ public class Parser
 
         this.eat(Tokentype.RESERVED, "port");
         this.eat(Tokentype.LBRACE);
-        while (this.currenttok.type != Tokentype.RBRACE)
+        while (this.current() != Tokentype.RBRACE)
         {
             children.add(this.port());
             this.eat(Tokentype.EOL);
@@ -190,19 +262,20 @@ public class Parser
         List<Tree> children = new ArrayList<Tree>();
         Map<String, String> attributes = new HashMap<String, String>();
 
-        attributes.put("direction", this.currenttok.value);
+        attributes.put("direction", this.value());
         this.eat(Tokentype.RESERVED, "input", "output");
-        attributes.put("type", this.currenttok.value);
-        this.eatType();
-        if (attributes.get("type").equals("vec"))
+        Datatype type = this.eatType();
+        attributes.put("type", type.toString());
+        if (type == Datatype.VEC)
         {
             this.eat(Tokentype.LBRACKET);
             children.add(this.expression());
             this.eat(Tokentype.RBRACKET);
         }
-        attributes.put("name", this.currenttok.value);
+        attributes.put("name", this.value());
+        int symbol = this.symbol();
         this.eat(Tokentype.ID);
-        return new Tree(Nodetype.PORT, attributes, children);
+        return new Tree(Nodetype.PORT, attributes, children, symbol);
     }
 
     /**
@@ -215,49 +288,84 @@ public class Parser
 
         this.eat(Tokentype.RESERVED, "arch");
         this.eat(Tokentype.LBRACE);
-        while (this.currenttok.type != Tokentype.RBRACE)
+        while (this.current() != Tokentype.RBRACE)
         {
-            if (this.currenttok.value.equals("signal"))
+            if (this.value().equals("signal"))
                 children.add(this.sigdec());
-            else if (this.currenttok.value.equals("const"))
+            else if (this.value().equals("const"))
                 children.add(this.constant());
-            else if (this.currenttok.type == Tokentype.ID)
+            else if (this.current() == Tokentype.ID && this.lookahead(1) == Tokentype.ID)
+                children.add(this.compdec());
+            else if (this.current() == Tokentype.ID)
             {
-                Tree id = this.identifier();
-                if (this.currenttok.type == Tokentype.LTEQ)
-                {
-                    this.eat(Tokentype.LTEQ);
-                    List<Tree> assignmentchildren = new ArrayList<Tree>();
-                    assignmentchildren.add(id);
-                    assignmentchildren.add(this.expression());
-                    children.add(new Tree(Nodetype.BINARYOP, quickHashMap("type", "<="), assignmentchildren));
-                    this.eat(Tokentype.EOL);
-                }
-                else if (this.currenttok.type == Tokentype.ID)
-                {
-                    Map<String, String> compattr = new HashMap<String, String>();
-                    List<Tree> compchildren = new ArrayList<Tree>();
-
-                    compattr.put("name", this.currenttok.value);
-                    compattr.put("type", id.attributes.get("name"));
-                    this.eat(Tokentype.ID);
-                    this.eat(Tokentype.EQ);
-                    this.eat(Tokentype.RESERVED, "new");
-                    this.eat(Tokentype.ID, id.attributes.get("name")); // verify assigned component instance is the same type as declared
-                    this.eat(Tokentype.LPAREN);
-                    if (this.currenttok.type != Tokentype.RPAREN)
-                        compchildren.addAll(this.genericlist());
-                    this.eat(Tokentype.RPAREN);
-                    this.eat(Tokentype.EOL);
-                    children.add(new Tree(Nodetype.COMPDEC, compattr, compchildren));
-                }
+                List<Tree> assignmentchildren = new ArrayList<Tree>();
+                assignmentchildren.add(this.identifier());
+                this.eat(Tokentype.LTEQ);
+                assignmentchildren.add(this.expression());
+                children.add(new Tree(Operator.ASSIGN, assignmentchildren));
+                this.eat(Tokentype.EOL);
             }
             else
-                error("Unexpected Token", String.format("Expected ID or SIGNAL, got (%s)", this.currenttok.value.toString()), this.lexer.getline());
+                this.error("Unexpected Token", String.format("Expected ID or SIGNAL, got (%s)", this.value()));
         }
+        this.eat(Tokentype.RBRACE);
         return new Tree(Nodetype.ARCH, children);
     }
 
+    /**
+    * Parses an architecture whose parser was created over just its source range (by LazyArch)
+    */
+    Tree parseArch()
+    {
+        return this.arch();
+    }
+
+    /**
+    * Skips an architecture ("arch", LBRACE, ..., RBRACE), recording where it is so it can be parsed later
+    * @return LazyArch node, or a fully parsed Tree with root node of type Nodetype.ARCH if the body has already been tokenized
+    */
+    private Tree lazyArch()
+    {
+        int archindex = this.index;
+        int start = this.tokens.start(archindex);
+        this.eat(Tokentype.RESERVED, "arch");
+        if (this.current() != Tokentype.LBRACE || !this.tokens.skipBlock(this.index))
+        {
+            this.index = archindex;
+            return this.arch();
+        }
+        this.eat(Tokentype.LBRACE);
+        int end = this.tokens.start(this.index) + 1;
+        this.eat(Tokentype.RBRACE);
+        return new LazyArch(this.tokens.getSource(), start, end, this.tokens.line(archindex), this.tokens.col(archindex));
+    }
+
+    /**
+    * Parses component instantiation ({type}, {name}, "=", "new", {type}, LPAREN, [{genericlist}], RPAREN)
+    * @return Tree with root node of type Nodetype.COMPDEC and children of type Nodetype.BINARYOP (generic assignments)
+    */
+    private Tree compdec()
+    {
+        Map<String, String> attributes = new HashMap<String, String>();
+        List<Tree> children = new ArrayList<Tree>();
+
+        String type = this.value();
+        this.eat(Tokentype.ID);
+        attributes.put("name", this.value());
+        attributes.put("type", type);
+        int symbol = this.symbol();
+        this.eat(Tokentype.ID);
+        this.eat(Tokentype.EQ);
+        this.eat(Tokentype.RESERVED, "new");
+        this.eat(Tokentype.ID, type); // verify assigned component instance is the same type as declared
+        this.eat(Tokentype.LPAREN);
+        if (this.current() != Tokentype.RPAREN)
+            children.addAll(this.genericlist());
+        this.eat(Tokentype.RPAREN);
+        this.eat(Tokentype.EOL);
+        return new Tree(Nodetype.COMPDEC, attributes, children, symbol);
+    }
+
     /**
     * Parses signal declaration ("signal", {type}, {name})
     * @return Tree with root node of type Nodetype.SIGDEC
@@ -267,18 +375,19 @@ public class Parser
         List<Tree> children = new ArrayList<Tree>();
         Map<String, String> attributes = new HashMap<String, String>();
         this.eat(Tokentype.RESERVED, "signal");
-        attributes.put("type", this.currenttok.value);
-        this.eatType();
-        if (attributes.get("type").equals("vec"))
+        Datatype type = this.eatType();
+        attributes.put("type", type.toString());
+        if (type == Datatype.VEC)
         {
             this.eat(Tokentype.LBRACKET);
             children.add(this.expression());
             this.eat(Tokentype.RBRACKET);
         }
-        attributes.put("name", this.currenttok.value);
+        attributes.put("name", this.value());
+        int symbol = this.symbol();
         this.eat(Tokentype.ID);
         this.eat(Tokentype.EOL);
-        return new Tree(Nodetype.SIGDEC, attributes, children);
+        return new Tree(Nodetype.SIGDEC, attributes, children, symbol);
     }
 
     /**
@@ -290,20 +399,21 @@ public class Parser
         List<Tree> children = new ArrayList<Tree>();
         Map<String, String> attributes = new HashMap<String, String>();
         this.eat(Tokentype.RESERVED, "const");
-        attributes.put("type", this.currenttok.value);
-        this.eatType();
-        if (attributes.get("type").equals("vec"))
+        Datatype type = this.eatType();
+        attributes.put("type", type.toString());
+        if (type == Datatype.VEC)
         {
             this.eat(Tokentype.LBRACKET);
             children.add(this.expression());
             this.eat(Tokentype.RBRACKET);
         }
-        attributes.put("name", this.currenttok.value);
+        attributes.put("name", this.value());
+        int symbol = this.symbol();
         this.eat(Tokentype.ID);
         this.eat(Tokentype.EQ);
         children.add(this.expression());
         this.eat(Tokentype.EOL);
-        return new Tree(Nodetype.CONST, attributes, children);
+        return new Tree(Nodetype.CONST, attributes, children, symbol);
     }
 
     /**
@@ -315,14 +425,14 @@ public class Parser
         List<Tree> children = new ArrayList<Tree>();
         do
         {
-            if (this.currenttok.type == Tokentype.COMMA)
+            if (this.current() == Tokentype.COMMA)
                 this.eat(Tokentype.COMMA);
             List<Tree> assignment = new ArrayList<Tree>();
             assignment.add(this.identifier(false));
             this.eat(Tokentype.EQ);
             assignment.add(this.expression());
-            children.add(new Tree(Nodetype.BINARYOP, quickHashMap("type", "="), assignment));
-        } while (this.currenttok.type == Tokentype.COMMA);
+            children.add(new Tree(Operator.GENERICASSIGN, assignment));
+        } while (this.current() == Tokentype.COMMA);
         return children;
     }
 
@@ -334,16 +444,17 @@ public class Parser
     private Tree identifier(boolean allowcompound)
     {
         Map<String, String> attributes = new HashMap<String, String>();
-        attributes.put("name", this.currenttok.value);
+        attributes.put("name", this.value());
+        int symbol = this.symbol();
         this.eat(Tokentype.ID);
-        Tree left = new Tree(Nodetype.IDENTIFIER, attributes);
-        if (allowcompound && this.currenttok.type == Tokentype.PERIOD)
+        Tree left = new Tree(Nodetype.IDENTIFIER, attributes, symbol);
+        if (allowcompound && this.current() == Tokentype.PERIOD)
         {
             List<Tree> children = new ArrayList<Tree>();
             children.add(left);
             this.eat(Tokentype.PERIOD);
             children.add(this.identifier(false));
-            return new Tree(Nodetype.BINARYOP, quickHashMap("type", "."), children);
+            return new Tree(Operator.MEMBER, children);
         }
         return left;
     }
@@ -364,177 +475,167 @@ public class Parser
     private Tree literal()
     {
         Map<String, String> attributes = new HashMap<String, String>();
-        Tokentype t = this.currenttok.type;
-        attributes.put("value", this.currenttok.value);
+        Tokentype t = this.current();
+        attributes.put("value", this.value());
         attributes.put("type", t.toString());
         if (match(t, Tokentype.DECINTLITERAL, Tokentype.BININTLITERAL, Tokentype.HEXINTLITERAL, Tokentype.BINVECLITERAL, Tokentype.HEXVECLITERAL))
             this.eat(t);
         else
-            error("Unexpected Token", String.format("Expected LITERAL, got (%s)", this.currenttok.value.toString()), this.lexer.getline());
+            this.error("Unexpected Token", String.format("Expected LITERAL, got (%s)", this.value()));
         return new Tree(Nodetype.LITERAL, attributes);
     }
 
     /**
-    * Parses expressions: boolexpr (a bit of a misnomer) with an optional ternary operation
+    * Parses expressions: an operator expression with an optional ternary operation
+    * Chains (a ? b : c ? d : e) are collected in a loop and nest to the right, as if the false branch were parsed recursively
     * @return Tree represeting parsed expression
     */
     private Tree expression()
     {
-        Tree node = this.boolexpr();
-        if (this.currenttok.type == Tokentype.QUESTION)
+        Tree node = this.operatorExpression();
+        if (this.current() != Tokentype.QUESTION)
+            return node;
+        List<Tree> branches = new ArrayList<Tree>(); // condition, true branch pairs
+        while (this.current() == Tokentype.QUESTION)
         {
-            List<Tree> children = new ArrayList<Tree>();
             this.eat(Tokentype.QUESTION);
-            Tree left = this.expression();
+            branches.add(node);
+            branches.add(this.expression());
             this.eat(Tokentype.COLON);
-            children.add(node);
-            children.add(left);
-            children.add(this.expression());
-            node = new Tree(Nodetype.TERNARYOP, quickHashMap("type", "?"), children);
+            node = this.operatorExpression();
         }
-        return node;
-    }
-
-    /**
-    * Parses boolexpr: boolfactor followed by an unlimited number of AND, OR, or XOR operators
-    * @return Tree representing parsed boolexpr
-    */
-    private Tree boolexpr()
-    {
-        Tree node = this.boolfactor();
-        if (match(this.currenttok.type, Tokentype.AND, Tokentype.OR, Tokentype.XOR))
+        for (int i = branches.size() - 2; i >= 0; i -= 2)
         {
-            Map<String, String> attributes = quickHashMap("type", this.currenttok.value);
             List<Tree> children = new ArrayList<Tree>();
-            this.eat(this.currenttok.type);
+            children.add(branches.get(i));
+            children.add(branches.get(i + 1));
             children.add(node);
-            children.add(this.boolexpr());
-            node = new Tree(Nodetype.BINARYOP, attributes, children);
+            node = new Tree(Operator.COND, children);
         }
         return node;
     }
 
     /**
-    * Parses boolfactor: a relation with an optional unary NOT operator preceeding it
-    * @return Tree representing parsed boolfactor
+    * Gets the binary operator at the current token
+    * @return Operator, or null if the current token isn't an infix operator
     */
-    private Tree boolfactor()
+    private Operator infix()
     {
-        if (this.currenttok.type == Tokentype.NOT)
-        {
-            List<Tree> children = new ArrayList<Tree>();
-            this.eat(Tokentype.NOT);
-            children.add(this.relation());
-            return new Tree(Nodetype.UNARYOP, quickHashMap("type", "!"), children);
-        }
-        return this.relation();
+        Tokentype t = this.current();
+        if (t == Tokentype.RESERVED)
+            return Operator.binary(this.value()); // bitwise operators are reserved words
+        return INFIX[t.ordinal()];
     }
 
     /**
-    * Parses relation: (a misnomer; it's really either a boolean literal, a relation, or a sum)
-    * @return Tree representing a parsed "relation"
+    * Parses operator expressions by precedence climbing, with explicit operand and operator stacks instead of one method per precedence level.
+    * Long operator chains (like wide xor reductions) don't recurse; only parentheses and splices do.
+    * Operators of a level bind to the right (a - b - c parses as a - (b - c)), relations and ** don't chain,
+    * and boolean literals can only be operands of the boolean operators
+    * @return Tree representing parsed expression
     */
-    private Tree relation()
+    private Tree operatorExpression()
     {
-        if (this.currenttok.type == Tokentype.BOOLLITERAL)
+        int operatorbase = this.operatortop;
+        int context = NONE; // precedence of the operator the next operand belongs to
+        while (true)
         {
-            Map<String, String> attributes = new HashMap<String, String>();
-            attributes.put("value", this.currenttok.value);
-            attributes.put("type", this.currenttok.type.toString());
-            Tree node = new Tree(Nodetype.LITERAL, attributes);
-            this.eat(Tokentype.BOOLLITERAL);
-            return node;
-        }
-        else
-        {
-            Tree node = this.sum();
-            Tokentype t = this.currenttok.type;
-            if (match(t, Tokentype.LT, Tokentype.GT, Tokentype.LTEQ, Tokentype.GTEQ, Tokentype.EQ, Tokentype.NE))
+            // prefix operators and the operand
+            Tokentype t = this.current();
+            boolean boolliteral = false;
+            if (t == Tokentype.NOT && context <= BOOL)
             {
-                Map<String, String> attributes = quickHashMap("type", this.currenttok.value);
-                List<Tree> children = new ArrayList<Tree>();
+                this.eat(Tokentype.NOT);
+                context = this.pushOperator(Operator.NOT, NOT);
+                continue;
+            }
+            else if ((t == Tokentype.SUB || (t == Tokentype.RESERVED && this.value().equals("not"))) && context <= PRODUCT)
+            {
+                Operator op = Operator.unary(this.value());
                 this.eat(t);
-                children.add(node);
-                children.add(this.sum());
-                node = new Tree(Nodetype.BINARYOP, attributes, children);
+                context = this.pushOperator(op, NEGATE);
+                continue;
             }
-            return node;
-        }
-    }
-
-    /**
-    * Parses sums: arbitrary number of products separated by ADD, SUB, AND (concatenation), bitwise OR, or bitwise NOR operators
-    * @return Tree of parsed sum
-    */
-    private Tree sum()
-    {
-        Tree node = this.product();
-        Tokentype t = this.currenttok.type;
-        String v = this.currenttok.value;
-        if (match(t, Tokentype.ADD, Tokentype.SUB, Tokentype.AND) || (v.equals("or") || v.equals("nor")))
-        {
-            List<Tree> children = new ArrayList<Tree>();
-            this.eat(t);
-            children.add(node);
-            children.add(this.sum());
-            node = new Tree(Nodetype.BINARYOP, quickHashMap("type", v), children);
+            else if (t == Tokentype.BOOLLITERAL && context <= NOT)
+            {
+                Map<String, String> attributes = new HashMap<String, String>();
+                attributes.put("value", this.value());
+                attributes.put("type", t.toString());
+                this.eat(Tokentype.BOOLLITERAL);
+                this.pushOperand(new Tree(Nodetype.LITERAL, attributes));
+                boolliteral = true;
+            }
+            else
+                this.pushOperand(this.term());
+
+            // infix operator; anything that can't continue the expression ends it, and is left for the caller to report
+            Operator op = this.infix();
+            if (op == null)
+                break;
+            int precedence = PRECEDENCE[op.ordinal()];
+            if (boolliteral)
+            {
+                if (op != Operator.AND && op != Operator.OR && op != Operator.XOR)
+                    break;
+                precedence = BOOL; // & after a boolean literal is boolean and, not concatenation
+            }
+            this.reduce(operatorbase, precedence);
+            if ((precedence == RELATION || precedence == POWER) && this.operatortop > operatorbase && this.precedences[this.operatortop - 1] == precedence)
+                break;
+            this.eat(this.current());
+            context = this.pushOperator(op, precedence);
         }
+        this.reduce(operatorbase, NONE);
+        Tree node = this.operands[--this.operandtop];
+        this.operands[this.operandtop] = null;
         return node;
     }
 
-    /**
-    * Parses products: arbitrary number of factors separated by MUL, DIV, MOD, bitwise AND, bitwise NAND, bitwise XOR, or bitwise XNOR operators
-    * @return Tree of parsed product
-    */
-    private Tree product()
+    private void pushOperand(Tree operand)
     {
-        Tree node = this.factor();
-        Tokentype t = this.currenttok.type;
-        String v = this.currenttok.value;
-        if (match(t, Tokentype.MUL, Tokentype.DIV, Tokentype.MOD) || (v.equals("and") || v.equals("nand") || v.equals("xor") || v.equals("xnor")))
-        {
-            List<Tree> children = new ArrayList<Tree>();
-            this.eat(t);
-            children.add(node);
-            children.add(this.product());
-            node = new Tree(Nodetype.BINARYOP, quickHashMap("type", v), children);
-        }
-        return node;
+        if (this.operandtop == this.operands.length)
+            this.operands = Arrays.copyOf(this.operands, this.operandtop * 2);
+        this.operands[this.operandtop++] = operand;
     }
 
     /**
-    * Parses factors: power with an optional unary SUB or bitwise NOT
-    * @return Tree of parsed factor
+    * @return int precedence, as the context for the next operand
     */
-    private Tree factor()
+    private int pushOperator(Operator op, int precedence)
     {
-        if (this.currenttok.type == Tokentype.SUB || this.currenttok.value.equals("not"))
+        if (this.operatortop == this.operators.length)
         {
-            Map<String, String> attributes = quickHashMap("type", this.currenttok.value);
-            List<Tree> children = new ArrayList<Tree>();
-            children.add(this.power());
-            return new Tree(Nodetype.UNARYOP, attributes, children);
+            this.operators = Arrays.copyOf(this.operators, this.operatortop * 2);
+            this.precedences = Arrays.copyOf(this.precedences, this.operatortop * 2);
         }
-        return this.power();
+        this.operators[this.operatortop] = op;
+        this.precedences[this.operatortop++] = precedence;
+        return precedence;
     }
 
     /**
-    * Parses power: term with an optional exponentiation (to the power of another term)
-    * @return Tree of parsed power
+    * Pops operators that bind tighter than precedence off the stack, replacing their operands with the operator's node
+    * @param base int bottom of the operator stack for the current expression
+    * @param precedence int precedence of the incoming operator
     */
-    private Tree power()
+    private void reduce(int base, int precedence)
     {
-        Tree node = this.term();
-        Tokentype t = this.currenttok.type;
-        if (t == Tokentype.EXP)
+        while (this.operatortop > base && this.precedences[this.operatortop - 1] > precedence)
         {
-            List<Tree> children = new ArrayList<Tree>();
-            this.eat(t);
-            children.add(node);
-            children.add(this.term());
-            node = new Tree(Nodetype.BINARYOP, quickHashMap("type", "**"), children);
+            Operator op = this.operators[--this.operatortop];
+            this.operators[this.operatortop] = null;
+            List<Tree> children = new ArrayList<Tree>(op.arity);
+            if (op.arity == 2)
+            {
+                Tree right = this.operands[--this.operandtop];
+                children.add(this.operands[this.operandtop - 1]);
+                children.add(right);
+            }
+            else
+                children.add(this.operands[this.operandtop - 1]);
+            this.operands[this.operandtop] = null;
+            this.operands[this.operandtop - 1] = new Tree(op, children);
         }
-        return node;
     }
 
     /**
@@ -545,7 +646,7 @@ public class Parser
     private Tree term()
     {
         Tree node;
-        Tokentype t = this.currenttok.type;
+        Tokentype t = this.current();
         if (match(t, Tokentype.DECINTLITERAL, Tokentype.BININTLITERAL, Tokentype.HEXINTLITERAL, Tokentype.BINVECLITERAL, Tokentype.HEXVECLITERAL))
         {
             node = this.literal();
@@ -555,7 +656,7 @@ public class Parser
             this.eat(Tokentype.LPAREN);
             List<Tree> children = new ArrayList<Tree>();
             children.add(this.expression());
-            node = new Tree(Nodetype.UNARYOP, quickHashMap("type", "()"), children);
+            node = new Tree(Operator.PAREN, children);
             this.eat(Tokentype.RPAREN);
         }
         else if (t == Tokentype.ID)
@@ -564,23 +665,23 @@ public class Parser
         }
         else
         {
-            error("Unexpected Token", String.format("Expected LITERAL, IDENTIFIER, or LPAREN, got (%s)", this.currenttok.value.toString()), this.lexer.getline());
+            this.error("Unexpected Token", String.format("Expected LITERAL, IDENTIFIER, or LPAREN, got (%s)", this.value()));
             return null;
         }
 
-        if (this.currenttok.type == Tokentype.LBRACKET)
+        if (this.current() == Tokentype.LBRACKET)
         {
             List<Tree> children = new ArrayList<Tree>();
             children.add(node);
             this.eat(Tokentype.LBRACKET);
             children.add(this.expression());
-            if (this.currenttok.type == Tokentype.COLON)
+            if (this.current() == Tokentype.COLON)
             {
                 this.eat(Tokentype.COLON);
                 children.add(this.expression());
             }
             this.eat(Tokentype.RBRACKET);
-            node = new Tree(Nodetype.TERNARYOP, quickHashMap("type", "[]"), children);
+            node = new Tree(Operator.SLICE, children);
         }
         return node;
     }
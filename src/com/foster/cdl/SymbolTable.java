@@ -0,0 +1,169 @@
+/*
+SymbolTable.java - Reed Foster
+Global interning table mapping each distinct identifier (and reserved word) to a dense int id.
+Lookups of names that are already in the table don't lock, so components can be lexed on several threads at once;
+adding a name takes the class lock
+*/
+
+package com.foster.cdl;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+
+public class SymbolTable
+{
+    public static final int NONE = -1; // symbol of tokens and nodes that don't carry a name
+
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    // written only while holding the class lock. A slot is filled (with a release store) after its id's name and hash,
+    // and grown arrays are published before the ids in them are, so a reader that finds an id in slots also sees its name
+    private static int size = 0;
+    private static volatile String[] names = new String[256]; // canonical String for each id
+    private static volatile int[] hashes = new int[256]; // hash of each id's name
+    private static volatile int[] slots = new int[512]; // open-addressed hash index; holds id + 1, 0 for an empty slot
+
+    /**
+    * Hashes a span of characters (same function as String.hashCode, so interning a String can reuse its cached hash)
+    */
+    private static int hash(CharSequence source, int start, int length)
+    {
+        int h = 0;
+        for (int i = start; i < start + length; i++)
+            h = 31 * h + source.charAt(i);
+        return h;
+    }
+
+    /**
+    * Mixes a hash so that names differing only in their last characters spread across the index
+    */
+    private static int mix(int h)
+    {
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean spanEquals(String name, CharSequence source, int start, int length)
+    {
+        if (name.length() != length)
+            return false;
+        for (int i = 0; i < length; i++)
+        {
+            if (name.charAt(i) != source.charAt(start + i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+    * Finds the id of a span, adding it to the table if it hasn't been seen before.
+    * Only the first occurrence of a name allocates a String
+    * @param source CharSequence containing the name
+    * @param start int offset of the name in source
+    * @param length int length of the name
+    * @return int id of the name
+    */
+    public static int intern(CharSequence source, int start, int length)
+    {
+        int h = hash(source, start, length);
+        int id = find(source, start, length, h);
+        return id != NONE ? id : insert(source, start, length, h);
+    }
+
+    /**
+    * Finds the id of a name, adding it to the table if it hasn't been seen before
+    * @param name String to intern
+    * @return int id of name
+    */
+    public static int intern(String name)
+    {
+        int h = name.hashCode();
+        int id = find(name, 0, name.length(), h);
+        return id != NONE ? id : insert(name, 0, name.length(), h);
+    }
+
+    /**
+    * Looks a name up without locking
+    * @return int id of the name, or NONE if it isn't in the table (or was added too recently to be seen)
+    */
+    private static int find(CharSequence source, int start, int length, int h)
+    {
+        int[] slots = SymbolTable.slots;
+        int mask = slots.length - 1;
+        int slot = mix(h) & mask;
+        int entry;
+        while ((entry = (int) SLOTS.getAcquire(slots, slot)) != 0)
+        {
+            int id = entry - 1;
+            if (hashes[id] == h && spanEquals(names[id], source, start, length))
+                return id;
+            slot = (slot + 1) & mask;
+        }
+        return NONE;
+    }
+
+    /**
+    * Adds a name to the table, unless another thread added it since find() missed it
+    * @return int id of the name
+    */
+    private static synchronized int insert(CharSequence source, int start, int length, int h)
+    {
+        int[] slots = SymbolTable.slots;
+        int mask = slots.length - 1;
+        int slot = mix(h) & mask;
+        while (slots[slot] != 0)
+        {
+            int id = slots[slot] - 1;
+            if (hashes[id] == h && spanEquals(names[id], source, start, length))
+                return id;
+            slot = (slot + 1) & mask;
+        }
+        int id = size++;
+        if (id == names.length)
+        {
+            names = Arrays.copyOf(names, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        names[id] = source.subSequence(start, start + length).toString();
+        hashes[id] = h;
+        SLOTS.setRelease(slots, slot, id + 1);
+        if (size * 2 > slots.length)
+            rehash();
+        return id;
+    }
+
+    /**
+    * Doubles the hash index, keeping its load factor at or below one half
+    */
+    private static void rehash()
+    {
+        int[] grown = new int[slots.length * 2];
+        int mask = grown.length - 1;
+        for (int id = 0; id < size; id++)
+        {
+            int slot = mix(hashes[id]) & mask;
+            while (grown[slot] != 0)
+                slot = (slot + 1) & mask;
+            grown[slot] = id + 1;
+        }
+        slots = grown; // readers still probing the old index just miss names added from here on
+    }
+
+    /**
+    * Gets the canonical String for an id; every occurrence of a name shares this one instance
+    * @param id int id returned by intern
+    * @return String name
+    */
+    public static String name(int id)
+    {
+        return names[id];
+    }
+
+    /**
+    * Get the number of distinct names interned so far
+    */
+    public static synchronized int size()
+    {
+        return size;
+    }
+}
@@ -8,16 +8,48 @@ package com.foster.cdl;
 public class Token
 {   
     public final Tokentype type;
-    public final String value;
+    public final int start; // offset of the token's text in source
+    public final int length;
+    public final int line;
+    public final int col;
+    public final int symbol; // SymbolTable id for identifiers and reserved words, SymbolTable.NONE otherwise
+    private final CharSequence source;
+    private String value; // materialized on first call to value()
     
-    Token(Tokentype type, String value)
+    Token(Tokentype type, CharSequence source, int start, int length, int line, int col, int symbol)
     {
+        this.symbol = symbol;
         this.type = type;
-        this.value = value;
+        this.source = source;
+        this.start = start;
+        this.length = length;
+        this.line = line;
+        this.col = col;
+    }
+
+    Token(Tokentype type, String value)
+    {
+        this(type, value, 0, value.length(), 0, 0, SymbolTable.NONE);
+    }
+
+    /**
+    * Gets the text of the token: the interned name for identifiers and reserved words, otherwise a String created from the source span the first time it's requested
+    * @return String value of the token (without radix prefixes or quotes for literals)
+    */
+    public String value()
+    {
+        if (this.value == null)
+        {
+            if (this.symbol != SymbolTable.NONE)
+                this.value = SymbolTable.name(this.symbol);
+            else
+                this.value = this.source.subSequence(this.start, this.start + this.length).toString();
+        }
+        return this.value;
     }
     
     public String toString()
     {
-        return String.format("(%s, \"%s\")", this.type, this.value);
+        return String.format("(%s, \"%s\")", this.type, this.value());
     }
 }
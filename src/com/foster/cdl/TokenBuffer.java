@@ -0,0 +1,224 @@
+/*
+TokenBuffer.java - Reed Foster
+Lexes a whole compilation unit into parallel primitive arrays (one slot per token) for the Parser to walk by index.
+A lazy buffer only lexes as far as the parser has looked, so blocks it isn't interested in can be skipped without being tokenized
+*/
+
+package com.foster.cdl;
+
+import java.util.*;
+
+public class TokenBuffer
+{
+    private static final Tokentype[] TOKENTYPES = Tokentype.values();
+    private static final int INITIALCAPACITY = 256;
+
+    private final CharSequence source;
+    private int size;
+    private int[] types; // Tokentype ordinals
+    private int[] starts; // offsets of token text in source
+    private int[] lengths;
+    private long[] positions; // line in the upper 32 bits, col in the lower 32 bits
+    private int[] symbols; // SymbolTable ids of identifiers and reserved words, SymbolTable.NONE for other tokens
+    private String[] text; // token text, filled in on first request
+    private Lexer lexer; // lexer of a lazy buffer, null once EOF has been buffered
+
+    /**
+    * Constructor
+    * @param lexer Lexer to read tokens from
+    * @param lazy boolean if false, every token up to and including EOF is scanned up front; otherwise tokens are scanned as they're requested
+    */
+    TokenBuffer(Lexer lexer, boolean lazy)
+    {
+        this.source = lexer.getSource();
+        this.size = 0;
+        this.types = new int[INITIALCAPACITY];
+        this.starts = new int[INITIALCAPACITY];
+        this.lengths = new int[INITIALCAPACITY];
+        this.positions = new long[INITIALCAPACITY];
+        this.symbols = new int[INITIALCAPACITY];
+        this.text = new String[INITIALCAPACITY];
+        this.lexer = lexer;
+        if (!lazy)
+            this.fill(Integer.MAX_VALUE);
+    }
+
+    /**
+    * Constructor; scans every token out of lexer up to and including EOF
+    * @param lexer Lexer to drain
+    */
+    TokenBuffer(Lexer lexer)
+    {
+        this(lexer, false);
+    }
+
+    TokenBuffer(CharSequence source)
+    {
+        this(new Lexer(source));
+    }
+
+    /**
+    * Scans tokens until index is buffered or the lexer reaches EOF
+    */
+    private void fill(int index)
+    {
+        while (this.size <= index && this.lexer != null)
+            this.append(this.lexer.scan());
+    }
+
+    /**
+    * Appends the token the lexer just scanned
+    */
+    private void append(Tokentype type)
+    {
+        Lexer lexer = this.lexer;
+        this.append(type, lexer.tokenStart(), lexer.tokenLength(), lexer.tokenLine(), lexer.tokenCol(), lexer.tokenSymbol());
+        if (type == Tokentype.EOF)
+            this.lexer = null;
+    }
+
+    /**
+    * Skips the body of a block without tokenizing it; the token after the block's LBRACE becomes its closing RBRACE
+    * @param index int index of the block's LBRACE
+    * @return false if tokens past the LBRACE have already been scanned (or the buffer isn't lazy), in which case nothing is skipped
+    */
+    public boolean skipBlock(int index)
+    {
+        if (this.lexer == null || index != this.size - 1 || this.types[index] != Tokentype.LBRACE.ordinal())
+            return false;
+        this.append(this.lexer.skipBlock());
+        return true;
+    }
+
+    /**
+    * Appends a token to the end of the buffer, growing the arrays if necessary
+    */
+    private void append(Tokentype type, int start, int length, int line, int col, int symbol)
+    {
+        if (this.size == this.types.length)
+        {
+            int capacity = this.size * 2;
+            this.types = Arrays.copyOf(this.types, capacity);
+            this.starts = Arrays.copyOf(this.starts, capacity);
+            this.lengths = Arrays.copyOf(this.lengths, capacity);
+            this.positions = Arrays.copyOf(this.positions, capacity);
+            this.symbols = Arrays.copyOf(this.symbols, capacity);
+            this.text = Arrays.copyOf(this.text, capacity);
+        }
+        this.types[this.size] = type.ordinal();
+        this.starts[this.size] = start;
+        this.lengths[this.size] = length;
+        this.positions[this.size] = ((long) line << 32) | (col & 0xffffffffL);
+        this.symbols[this.size] = symbol;
+        this.size++;
+    }
+
+    /**
+    * Clamps an index to the buffer so that lookahead past the end keeps returning the EOF token
+    */
+    private int clamp(int index)
+    {
+        if (index >= this.size)
+            this.fill(index);
+        return index < this.size ? index : this.size - 1;
+    }
+
+    /**
+    * Get the number of tokens in the buffer (including the trailing EOF, once it has been scanned)
+    */
+    public int size()
+    {
+        return this.size;
+    }
+
+    public CharSequence getSource()
+    {
+        return this.source;
+    }
+
+    public Tokentype type(int index)
+    {
+        return TOKENTYPES[this.types[this.clamp(index)]];
+    }
+
+    public int start(int index)
+    {
+        return this.starts[this.clamp(index)];
+    }
+
+    public int length(int index)
+    {
+        return this.lengths[this.clamp(index)];
+    }
+
+    public int line(int index)
+    {
+        return (int) (this.positions[this.clamp(index)] >>> 32);
+    }
+
+    public int col(int index)
+    {
+        return (int) this.positions[this.clamp(index)];
+    }
+
+    /**
+    * Gets the SymbolTable id of an identifier or reserved word
+    * @param index int index of the token
+    * @return int id, or SymbolTable.NONE for other tokens
+    */
+    public int symbol(int index)
+    {
+        return this.symbols[this.clamp(index)];
+    }
+
+    /**
+    * Gets the text of a token: the interned name for identifiers and reserved words,
+    * otherwise a String created from its source span the first time it's requested
+    * @param index int index of the token
+    * @return String value of the token
+    */
+    public String text(int index)
+    {
+        index = this.clamp(index);
+        if (this.symbols[index] != SymbolTable.NONE)
+            return SymbolTable.name(this.symbols[index]);
+        String value = this.text[index];
+        if (value == null)
+        {
+            int start = this.starts[index];
+            value = this.source.subSequence(start, start + this.lengths[index]).toString();
+            this.text[index] = value;
+        }
+        return value;
+    }
+
+    /**
+    * Compares the text of a token against a string without materializing the token's text
+    * @param index int index of the token
+    * @param value String to compare against
+    * @return true if the token's text is exactly value
+    */
+    public boolean textEquals(int index, String value)
+    {
+        index = this.clamp(index);
+        int length = this.lengths[index];
+        if (length != value.length())
+            return false;
+        int start = this.starts[index];
+        for (int i = 0; i < length; i++)
+        {
+            if (this.source.charAt(start + i) != value.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+    * Builds a Token object for a single slot (used for debugging output)
+    */
+    public Token get(int index)
+    {
+        index = this.clamp(index);
+        return new Token(this.type(index), this.source, this.starts[index], this.lengths[index], this.line(index), this.col(index), this.symbols[index]);
+    }
+}
@@ -11,16 +11,67 @@ public class Tree
 {   
     public final Nodetype nodetype;
     public final Map<String, String> attributes;
+    public final int symbol; // SymbolTable id of the node's "name" attribute, SymbolTable.NONE for unnamed nodes
+    // typed copies of the "type" and "direction" attributes, so checks don't have to compare strings; null where they don't apply
+    public final Operator operator; // operator nodes
+    public final Datatype datatype; // declared type of GENDEC, PORT, SIGDEC, and CONST nodes; value type of LITERAL nodes
+    public final Tokentype literal; // token type of LITERAL nodes
+    public final Direction direction; // PORT nodes
     private List<Tree> children;
+    private DeclaredIdentifier binding; // declaration an IDENTIFIER or instance.port node refers to; set by NameBinder, null until bound
+    private CdlType type; // type of an expression node, or declared type of a declaration; cached by ComponentVerifier, null until checked
     
     /**
     * Default Tree constructor
+    * @param operator Operator of an operator node (spellings like "<=" are ambiguous, so it can't be read back out of attributes)
     */
-    Tree(Nodetype nodetype, Map<String, String> attributes, List<Tree> children)
+    Tree(Nodetype nodetype, Map<String, String> attributes, List<Tree> children, int symbol, Operator operator)
     {
         this.nodetype = nodetype;
         this.attributes = attributes;
         this.children = children;
+        this.symbol = symbol;
+        this.operator = operator;
+        switch (nodetype)
+        {
+            case LITERAL:
+                this.literal = Tokentype.valueOf(attributes.get("type"));
+                this.datatype = Datatype.of(this.literal);
+                break;
+            case GENDEC:
+            case PORT:
+            case SIGDEC:
+            case CONST:
+                this.literal = null;
+                this.datatype = Datatype.of(attributes.get("type"));
+                break;
+            default:
+                this.literal = null;
+                this.datatype = null;
+        }
+        this.direction = nodetype == Nodetype.PORT ? Direction.of(attributes.get("direction")) : null;
+    }
+
+    Tree(Nodetype nodetype, Map<String, String> attributes, List<Tree> children, int symbol)
+    {
+        this(nodetype, attributes, children, symbol, Operator.of(nodetype, attributes.get("type")));
+    }
+
+    /**
+    * Tree constructor for unnamed nodes
+    */
+    Tree(Nodetype nodetype, Map<String, String> attributes, List<Tree> children)
+    {
+        this(nodetype, attributes, children, SymbolTable.NONE);
+    }
+
+    /**
+    * Tree constructor for operator nodes
+    */
+    Tree(Operator operator, List<Tree> children)
+    {
+        this(operator.nodetype(), new HashMap<String, String>(), children, SymbolTable.NONE, operator);
+        this.attributes.put("type", operator.toString());
     }
 
     /**
@@ -34,9 +85,14 @@ public class Tree
     /**
     * Tree constructor for nodes with no children (like identifiers)
     */
+    Tree(Nodetype nodetype, Map<String, String> attributes, int symbol)
+    {
+        this(nodetype, attributes, new ArrayList<Tree>(), symbol);
+    }
+
     Tree(Nodetype nodetype, Map<String, String> attributes)
     {
-        this(nodetype, attributes, new ArrayList<Tree>());
+        this(nodetype, attributes, SymbolTable.NONE);
     }
 
     /**
@@ -73,6 +129,14 @@ public class Tree
         return children.get(index);
     }
 
+    /**
+    * Returns a read-only view of the children, for traversals that don't need their own copy
+    */
+    public List<Tree> childList()
+    {
+        return Collections.unmodifiableList(this.children);
+    }
+
     /**
     * Returns a new ArrayList containing all the children
     */
@@ -81,6 +145,40 @@ public class Tree
         return new ArrayList<Tree>(this.children);
     }
 
+    /**
+    * Accessor method for the declaration this node refers to
+    * @return DeclaredIdentifier set by NameBinder, or null if the node hasn't been bound (or isn't a reference)
+    */
+    public DeclaredIdentifier getBinding()
+    {
+        return this.binding;
+    }
+
+    /**
+    * Modifier method for NameBinder
+    */
+    void bind(DeclaredIdentifier declaration)
+    {
+        this.binding = declaration;
+    }
+
+    /**
+    * Accessor method for the type of an expression (or of what a GENDEC, PORT, SIGDEC, or CONST node declares)
+    * @return CdlType computed by ComponentVerifier, or null if the node hasn't been checked (or its type is undefined)
+    */
+    public CdlType getExpressionType()
+    {
+        return this.type;
+    }
+
+    /**
+    * Modifier method for ComponentVerifier
+    */
+    void setExpressionType(CdlType type)
+    {
+        this.type = type;
+    }
+
     /**
     * Returns a string representation of the tree, with each generation of children indented 2 spaces
     */
@@ -94,15 +192,24 @@ public class Tree
     */
     public String visit(int depth)
     {
-        String s = String.format("%s : %s.\n", this.nodetype.toString(), this.attributes.toString());
-        for (Tree child : this.children)
+        StringBuilder s = new StringBuilder();
+        this.visit(depth, s);
+        return s.toString();
+    }
+
+    /**
+    * Appends the string representation of the subtree to s
+    */
+    private void visit(int depth, StringBuilder s)
+    {
+        s.append(String.format("%s : %s.\n", this.nodetype.toString(), this.attributes.toString()));
+        for (Tree child : this.childList())
         {
             for (int i = 0; i <= depth; i ++)
             {
-                s += "  ";
+                s.append("  ");
             }
-            s = s + String.format("%s", child.visit(depth + 1));
+            child.visit(depth + 1, s);
         }
-        return s;
     }
 }
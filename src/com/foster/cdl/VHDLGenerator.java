@@ -1,337 +1,517 @@
 /*
 VHDLGenerator.java - Reed Foster
-Generates VHDL from parsed components
+Generates VHDL from parsed components, streaming it to a Writer (or any Appendable) as it goes
 */
 
 package com.foster.cdl;
 
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class VHDLGenerator
 {
-    private Map<String, Component> components;
-    private Map<String, String> componentInterfaces;
-    private Map<String, Set<DeclaredIdentifier>> tempSignals; // maps each component name to a set of declaredIdentifiers
+    private static final int BUFFER = 1 << 16; // chars buffered in front of the encoder of each per-entity file
 
-    private String currentComponent;
+    private Map<String, Component> components;
+    private List<String> names; // component names in the order they're emitted (sorted, so the output doesn't depend on hash order)
+    private Instantiation instantiation;
+    private Map<String, Map<Long, DeclaredIdentifier>> tempSignals; // maps each component name to its temp signals, keyed by portKey(instance, port)
 
     VHDLGenerator(String source)
     {
-        SemanticAnalyzer s = new SemanticAnalyzer(source);
+        this(new SemanticAnalyzer(source));
+    }
+
+    VHDLGenerator(SemanticAnalyzer s)
+    {
+        this(s, Instantiation.COMPONENT_PER_INSTANCE);
+    }
+
+    /**
+    * Constructor
+    * @param s SemanticAnalyzer of the design
+    * @param instantiation Instantiation how subcomponents are declared and instantiated
+    */
+    VHDLGenerator(SemanticAnalyzer s, Instantiation instantiation)
+    {
         this.components = s.getComponents();
-        this.componentInterfaces = new HashMap<String, String>();
-        this.tempSignals = new HashMap<String, Set<DeclaredIdentifier>>();
+        this.instantiation = instantiation;
+        this.names = new ArrayList<String>(this.components.keySet());
+        Collections.sort(this.names);
+        this.tempSignals = new HashMap<String, Map<Long, DeclaredIdentifier>>();
         this.getAllTempSignals();
     }
 
+    /**
+    * Generates the VHDL of every component
+    * @return String VHDL
+    */
     public String getVHDL()
     {
-        for (String compname : this.components.keySet()) // first, generate all the entity declarations
+        StringBuilder output = new StringBuilder();
+        try
+        {
+            this.write(output);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e); // can't happen writing to memory
+        }
+        return output.toString();
+    }
+
+    /**
+    * Streams the VHDL of every component to out, without building it up in memory first
+    * @param out Appendable to write to (e.g. a BufferedWriter)
+    * @throws IOException if out fails
+    */
+    public void write(Appendable out) throws IOException
+    {
+        VHDLWriter vhdl = new VHDLWriter(out);
+        try
+        {
+            boolean first = true;
+            for (String compname : this.names)
+            {
+                if (!first)
+                    vhdl.newline().newline();
+                first = false;
+                this.unit(compname, vhdl);
+            }
+            vhdl.flush();
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    /**
+    * Writes each component (entity and architecture) to its own file, <component name>.vhd in directory.
+    * The files are generated and written in parallel on the common ForkJoinPool; generation only reads the components
+    * and the temp signal map, so the tasks share nothing they write.
+    * Files whose contents haven't changed aren't touched (see FileUpdateStream)
+    * @param directory Path of the output directory, created if it doesn't exist
+    * @param charset Charset to encode the files with
+    * @return int number of files that were created or changed
+    * @throws IOException of the first component (in name order) whose file couldn't be written
+    */
+    public int writeEntities(Path directory, Charset charset) throws IOException
+    {
+        Files.createDirectories(directory);
+        List<ForkJoinTask<Boolean>> tasks = new ArrayList<ForkJoinTask<Boolean>>(this.names.size());
+        for (String compname : this.names)
+        {
+            Path file = directory.resolve(compname + ".vhd");
+            tasks.add(ForkJoinPool.commonPool().submit(() -> this.writeEntity(compname, file, charset)));
+        }
+        try
+        {
+            int changed = 0;
+            for (ForkJoinTask<Boolean> task : tasks)
+            {
+                if (task.join())
+                    changed++;
+            }
+            return changed;
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    /**
+    * Streams one component to a file, rewriting the file only if its contents change
+    * @return boolean true if the file was created or changed
+    * @throws UncheckedIOException if the file can't be written
+    */
+    private boolean writeEntity(String compname, Path file, Charset charset)
+    {
+        try
         {
-            Tree ast = this.components.get(compname).ast;
-            this.componentInterfaces.put(compname, this.getEntity(ast));
+            FileUpdateStream update = new FileUpdateStream(file);
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(update, charset), BUFFER))
+            {
+                this.unit(compname, new VHDLWriter(writer));
+            }
+            return update.changed();
         }
-        String output = "";
-        for (String compname : this.components.keySet())
+        catch (IOException e)
         {
-            this.currentComponent = compname;
-            Tree ast = this.components.get(compname).ast;
-            output += "library ieee;\nuse ieee.std_logic_1164.all;\nuse ieee.numeric_std.all;\n\n";
-            output += this.componentInterfaces.get(compname) + "\n\n" + this.getArch(ast);
-            output += "\n\n\n";
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+    * Writes the design unit of a component: library clauses, entity declaration, and architecture
+    * @param compname String name of the component
+    */
+    private void unit(String compname, VHDLWriter vhdl)
+    {
+        Tree ast = this.components.get(compname).ast;
+        vhdl.line("library ieee;").line("use ieee.std_logic_1164.all;").line("use ieee.numeric_std.all;").newline();
+        this.entity(ast, vhdl);
+        for (Tree child : ast.childList())
+        {
+            if (child.nodetype == Nodetype.ARCH)
+                this.arch(compname, child, vhdl.newline());
         }
-        return output;
     }
 
     private void getAllTempSignals()
     {
         for (String componentName : this.components.keySet())
         {
-            this.currentComponent = componentName;
             Component component = this.components.get(componentName);
-            Set<DeclaredIdentifier> tempSignals = this.getTempSignals(component.ast);
-            this.tempSignals.put(componentName, tempSignals);
+            this.tempSignals.put(componentName, this.getTempSignals(component.ast));
         }
     }
 
     /**
-    * Creates a Set of DeclaredIdentifiers for all subcomponent ports that are used as signals
-    * @param node Tree reference to root node of component ast
+    * Key of the temp signal for a port of a subcomponent instance
+    * @param instance int symbol of the instance name
+    * @param port int symbol of the port name
     */
-    private Set<DeclaredIdentifier> getTempSignals(Tree node)
+    private static long portKey(int instance, int port)
     {
-        Set<DeclaredIdentifier> sigDecs = new HashSet<DeclaredIdentifier>();
-        if (node.nodetype == Nodetype.BINARYOP && node.attributes.get("type").equals("."))
+        return ((long) instance << 32) | (port & 0xffffffffL);
+    }
+
+    /**
+    * Creates a DeclaredIdentifier for each subcomponent port that's used as a signal, in one pass over the AST
+    * @param root Tree reference to root node of component ast
+    * @return Map of the temp signals by portKey(instance, port), in the order they're first used
+    */
+    private Map<Long, DeclaredIdentifier> getTempSignals(Tree root)
+    {
+        Map<Long, DeclaredIdentifier> sigDecs = new LinkedHashMap<Long, DeclaredIdentifier>();
+        Deque<Tree> stack = new ArrayDeque<Tree>();
+        stack.push(root);
+        while (!stack.isEmpty())
         {
+            Tree node = stack.pop();
+            if (node.operator != Operator.MEMBER)
+            {
+                List<Tree> children = node.childList();
+                for (int i = children.size() - 1; i >= 0; i--) // pushed in reverse, so children are visited in source order
+                    stack.push(children.get(i));
+                continue;
+            }
+            DeclaredIdentifier compinst = node.getChild(0).getBinding();
+            DeclaredIdentifier port = node.getBinding();
+            long key = portKey(compinst.symbol, port.symbol);
+            if (sigDecs.containsKey(key))
+                continue;
             List<Tree> children = new ArrayList<Tree>();
             Map<String, String> attributes = new HashMap<String, String>();
 
-            String compinstID = node.getChild(0).attributes.get("name");
-            String portID = node.getChild(1).attributes.get("name");
-            attributes.put("compname", compinstID);
-            attributes.put("portname", portID);
-            attributes.put("name", compinstID + "_" + portID);
+            String name = compinst.name + "_" + port.name;
+            attributes.put("compname", compinst.name);
+            attributes.put("portname", port.name);
+            attributes.put("name", name);
+            attributes.put("type", port.type);
+            if (port.datatype == Datatype.VEC)
+                children.add(port.declaration.getChild(0));
+            Tree declaration = new Tree(Nodetype.SIGDEC, attributes, children, SymbolTable.intern(name));
+            declaration.setExpressionType(port.cdltype);
+            sigDecs.put(key, new DeclaredIdentifier(declaration));
+        }
+        return sigDecs;
+    }
+
+    /**
+    * Writes the entity declaration of a component
+    * @param node Tree reference to root node of component ast
+    */
+    private void entity(Tree node, VHDLWriter out)
+    {
+        out.line("entity " + node.attributes.get("name") + " is");
+        this.entityBody(node, out.indent());
+        out.dedent().line("end " + node.attributes.get("name") + ";");
+    }
 
-            for (DeclaredIdentifier subcomp : this.components.get(this.currentComponent).getSubcomponents())
+    /**
+    * Writes the generic and port clauses of a component (the part an entity declaration and a component declaration share)
+    * @param node Tree reference to root node of component ast
+    * @return boolean true if the component has any generics or ports
+    */
+    private boolean entityBody(Tree node, VHDLWriter out)
+    {
+        boolean generics = false;
+        Tree ports = null;
+        for (Tree child : node.childList())
+        {
+            if (child.nodetype == Nodetype.GENDEC)
             {
-                if (subcomp.name.equals(compinstID))
-                {
-                    for (DeclaredIdentifier port : this.components.get(subcomp.type).getPorts())
-                    {
-                        if (port.name.equals(portID))
-                        {
-                            attributes.put("type", port.type);
-                            if (port.type.equals("vec"))
-                                children.add(port.declaration.getChild(0));
-                        }
-                    }
-                }
+                if (!generics)
+                    out.line("generic").line("(");
+                generics = true;
+                this.type(child, out.append(child.attributes.get("name") + " : "));
+                out.line(";");
             }
-            Tree declaration = new Tree(Nodetype.SIGDEC, attributes, children);
-            sigDecs.add(new DeclaredIdentifier(declaration));
+            else if (child.nodetype == Nodetype.PORTDEC && child.numChildren() > 0)
+                ports = child;
         }
-        else
+        if (generics)
+            out.newline().line(");");
+        if (ports != null)
         {
-            for (Tree child : node.getChildren())
+            out.line("port").line("(").indent();
+            List<Tree> portList = ports.childList();
+            for (int i = 0; i < portList.size(); i++)
             {
-                sigDecs.addAll(this.getTempSignals(child));
+                Tree port = portList.get(i);
+                this.type(port, out.append(port.attributes.get("name") + " : " + port.direction.vhdl + " "));
+                out.line(i < portList.size() - 1 ? ";" : "");
             }
+            out.dedent().line(");");
         }
-        return sigDecs;
+        return generics || ports != null;
     }
 
     /**
-    * Gets the entity definition of a component
-    * @param node Tree reference to root node of component ast
+    * Writes the architecture definition of a component
+    * @param component String name of the component
+    * @param node Tree reference to ARCH node of component ast
     */
-    private String getEntity(Tree node)
+    private void arch(String component, Tree node, VHDLWriter out)
     {
-        if (node.nodetype != Nodetype.COMPONENT)
-            return null;
-        String generics = "";
-        String ports = "";
-        for (Tree child : node.getChildren())
+        out.line("architecture structural of " + component + " is").indent();
+        boolean empty = true;
+        Set<String> declared = new HashSet<String>(); // component types declared so far (for COMPONENT_PER_TYPE)
+        for (Tree child : node.childList())
         {
             switch (child.nodetype)
             {
-                case GENDEC:
-                    generics += node.attributes.get("name") + " : " + this.getType(node) + ";\n";
+                case COMPDEC:
+                    String interfaceName = child.attributes.get("type");
+                    if (this.instantiation == Instantiation.ENTITY || (this.instantiation == Instantiation.COMPONENT_PER_TYPE && !declared.add(interfaceName)))
+                        continue;
+                    out.line("component " + interfaceName);
+                    if (!this.entityBody(this.components.get(interfaceName).ast, out.indent()))
+                        out.newline();
+                    out.dedent().line("end component;");
                     break;
-                case PORTDEC:
-                    String body = "";
-                    for (Tree grandchild : child.getChildren())
-                    {
-                        String direction = grandchild.attributes.get("direction");
-                        direction = direction.substring(0, direction.length() - 3); // input => in, output => out
-                        body += grandchild.attributes.get("name") + " : " + direction + " " + this.getType(grandchild) + ";\n";
-                    }
-                    if (body.length() != 0)
-                        ports = indent("port\n(\n" + indent(body.substring(0, body.length() - 2)) + "\n);") + "\n"; // substring to remove last trailing semicolon
+                case SIGDEC:
+                    this.type(child, out.append("signal " + child.attributes.get("name") + " : "));
+                    out.line(";");
                     break;
-                }
+                case CONST:
+                    this.type(child, out.append("constant " + child.attributes.get("name") + " : "));
+                    this.expression(child.getChild(0), out.append(" := "));
+                    out.line(";");
+                    break;
+                default:
+                    continue;
+            }
+            empty = false;
+        }
+        // temp signal declarations (one per name, in case two instance/port pairs join to the same name)
+        for (DeclaredIdentifier tempSignal : new LinkedHashSet<DeclaredIdentifier>(this.tempSignals.get(component).values()))
+        {
+            this.type(tempSignal.declaration, out.append("signal " + tempSignal.name + " : "));
+            out.line(";");
+            empty = false;
         }
-        String entity = "entity " + node.attributes.get("name") + " is\n";
-        entity += generics.length() > 1 ? indent("generic\n(\n" + generics + "\n);") + "\n" : "";
-        entity += ports;
-        entity += "end " + node.attributes.get("name") + ";";
-        return entity;
+        if (empty)
+            out.newline();
+        out.dedent().line("begin").indent();
+        empty = true;
+        for (Tree child : node.childList())
+        {
+            switch (child.nodetype)
+            {
+                case COMPDEC:
+                    this.instance(component, child, out);
+                    break;
+                case BINARYOP:
+                    this.expression(child, out);
+                    out.line(";");
+                    break;
+                default:
+                    continue;
+            }
+            empty = false;
+        }
+        if (empty)
+            out.newline();
+        out.dedent().line("end structural;");
     }
 
     /**
-    * Gets the architecture definition of a component
-    * @param node Tree reference to root node of component ast
+    * Writes the instantiation of a subcomponent, mapping each of its ports to the temp signal assigned to it (or open),
+    * with one hash lookup per port
+    * @param component String name of the component the instance is in
+    * @param node Tree reference to COMPDEC node
     */
-    private String getArch(Tree node)
+    private void instance(String component, Tree node, VHDLWriter out)
     {
-        String arch = "";
-        if (node.nodetype == Nodetype.ARCH)
-            arch += this.visit(node);
-        else if (node.nodetype == Nodetype.COMPONENT)
+        String interfaceName = node.attributes.get("type");
+        String instanceName = node.attributes.get("name");
+        out.line(instanceName + " : " + (this.instantiation == Instantiation.ENTITY ? "entity work." : "") + interfaceName).indent();
+        List<Tree> genericAssigns = node.childList();
+        if (genericAssigns.size() > 0)
         {
-            for (Tree child : node.getChildren())
-                arch += this.getArch(child);
+            out.line("generic map").line("(");
+            for (int i = 0; i < genericAssigns.size(); i++)
+            {
+                Tree genericAssign = genericAssigns.get(i);
+                this.expression(genericAssign.getChild(0), out);
+                this.expression(genericAssign.getChild(1), out.append(" => "));
+                out.line(i < genericAssigns.size() - 1 ? "," : "");
+            }
+            out.line(")");
+        }
+        Set<DeclaredIdentifier> ports = this.components.get(interfaceName).getPorts();
+        Map<Long, DeclaredIdentifier> tempSignals = this.tempSignals.get(component);
+        int instance = node.symbol != SymbolTable.NONE ? node.symbol : SymbolTable.intern(instanceName);
+        if (ports.size() > 0)
+        {
+            out.line("port map").line("(").indent();
+            int remaining = ports.size();
+            for (DeclaredIdentifier port : ports)
+            {
+                DeclaredIdentifier tempSignal = tempSignals.get(portKey(instance, port.symbol)); // null if this port of the instance isn't used
+                out.append(port.name + " => " + (tempSignal == null ? "open" : tempSignal.name));
+                out.line(--remaining > 0 ? "," : "");
+            }
+            out.dedent().append(")");
         }
-        return arch;
+        out.line(";").dedent();
     }
 
     /**
-    * Recursively visits subtrees, generating vhdl (note, this method must be called with a node of type Nodetype.ARCH, not Nodetype.COMPONENT)
-    * @param node Tree reference to root node of architecture subtree of component ast
+    * Writes an expression. The pieces still to be written (subtrees, and the operator text between them) are kept on an
+    * explicit stack, so arbitrarily deep expressions can't overflow the call stack
+    * @param root Tree reference to root node of expression subtree
     */
-    private String visit(Tree node)
+    private void expression(Tree root, VHDLWriter out)
     {
-        switch (node.nodetype)
+        Deque<Object> pending = new ArrayDeque<Object>(); // Trees to expand and Strings to write, next piece on top
+        pending.push(root);
+        while (!pending.isEmpty())
         {
-            case ARCH:
-                String declarations = "";
-                String assignments = "";
-                for (Tree child : node.getChildren())
-                {
-                    switch (child.nodetype)
+            Object piece = pending.pop();
+            if (piece instanceof String)
+            {
+                out.append((String) piece);
+                continue;
+            }
+            Tree node = (Tree) piece;
+            switch (node.nodetype)
+            {
+                case TERNARYOP:
+                    switch (node.operator)
                     {
-                        case COMPDEC:
-                            // add component declaration to declarations
-                            String interfaceName = child.attributes.get("type");
-                            String componentInterface = this.componentInterfaces.get(interfaceName);
-                            int firstnewline = componentInterface.indexOf('\n');
-                            int lastnewline = componentInterface.lastIndexOf('\n');
-                            declarations += "component " + interfaceName + "\n" + componentInterface.substring(firstnewline + 1, lastnewline) + "\nend component;\n";
-                            
-                            // add component instantiation to assignments
-                            String instanceName = child.attributes.get("name");
-                            Set<DeclaredIdentifier> ports = this.components.get(interfaceName).getPorts();
-                            Set<DeclaredIdentifier> generics = this.components.get(interfaceName).getGenerics();
-                            Set<DeclaredIdentifier> tempSignals = this.tempSignals.get(this.currentComponent);
-                            String portMap = "";
-                            for (DeclaredIdentifier port : ports)
-                            {
-                                portMap += port.name + " => ";
-                                String tempSignalName = instanceName + "_" + port.name;
-                                boolean containsPort = false; // true if the current component definition has a temp signal assigned to the current port on the current subcomponent instance
-                                for (DeclaredIdentifier tempSignal : tempSignals)
-                                {
-                                    if (tempSignal.name.equals(tempSignalName))
-                                    {
-                                        containsPort = true;
-                                        break;
-                                    }
-                                }
-                                portMap += containsPort ? tempSignalName : "open";
-                                portMap += ",\n";
-                            }
-                            String genericMap = "";
-                            for (Tree genericAssign : child.getChildren())
-                            {
-                                genericMap += this.visit(genericAssign.getChild(0)) + " => " + this.visit(genericAssign.getChild(1)) + ",\n";
-                            }
-                            portMap = portMap.length() > 0 ? "port map\n(\n" + indent(portMap.substring(0, portMap.length() - 2)) + "\n)" : "";
-                            genericMap = genericMap.length() > 0 ? "generic map\n(\n" + genericMap.substring(0, genericMap.length() - 2) + "\n)\n" : "";
-                            assignments += instanceName + " : " + interfaceName + "\n" + indent(genericMap + portMap + ";") + "\n";
+                        case COND:
+                            // pushed in reverse: arg2 when arg1 else arg3
+                            pending.push(node.getChild(2));
+                            pending.push(" else ");
+                            pending.push(node.getChild(0));
+                            pending.push(" when ");
+                            pending.push(node.getChild(1));
                             break;
-                        case SIGDEC:
-                        case CONST:
-                            declarations += this.visit(child) + ";\n";
+                        case SLICE:
+                            pending.push(")");
+                            pending.push(node.getChild(node.numChildren() == 2 ? 1 : 2));
+                            pending.push(" downto ");
+                            pending.push(node.getChild(1));
+                            pending.push("(");
+                            pending.push(node.getChild(0));
+                            break;
+                    }
+                    break;
+                case BINARYOP:
+                    pending.push(node.getChild(1));
+                    pending.push(node.operator == Operator.MEMBER ? "_" : " " + node.operator + " ");
+                    pending.push(node.getChild(0));
+                    break;
+                case UNARYOP:
+                    switch (node.operator)
+                    {
+                        case PAREN:
+                            pending.push(")");
+                            pending.push(node.getChild(0));
+                            pending.push("(");
                             break;
-                        case BINARYOP:
-                            assignments += this.visit(child) + ";\n";
+                        case BITNOT:
+                            pending.push(node.getChild(0));
+                            pending.push("not ");
                             break;
                         default:
-                            // shouldn't ever get here
+                            pending.push(node.getChild(0));
+                            pending.push(node.operator.toString());
                             break;
                     }
-                }
-                // add temp signal declarations
-                for (DeclaredIdentifier tempSignal : this.tempSignals.get(this.currentComponent))
-                {
-                    declarations += "signal " + tempSignal.name + " : " + this.getType(tempSignal.declaration) + ";\n";
-                }
-                return "architecture structural of " + this.currentComponent + " is\n" + indent(declarations) + "\nbegin\n" + indent(assignments) + "\nend structural;";
-            case SIGDEC:
-                return "signal " + node.attributes.get("name") + " : " + this.getType(node);
-            case CONST:
-                return "constant " + node.attributes.get("name") + " : " + this.getType(node) + " := " + this.visit(node.getChild(0));
-            case TERNARYOP:
-                if (node.attributes.get("type").equals("?"))
-                    return this.visit(node.getChild(1)) + " when " + this.visit(node.getChild(0)) + " else " + this.visit(node.getChild(2));
-                else if (node.attributes.get("type").equals("[]"))
-                {
-                    String upper = this.visit(node.getChild(1));
-                    String lower = node.numChildren() == 2 ? upper : this.visit(node.getChild(2));
-                    return this.visit(node.getChild(0)) + "(" + upper + " downto " + lower + ")";
-                }
-                break;
-            case BINARYOP:
-                String sep = node.attributes.get("type");
-                if (sep.equals("."))
-                    sep = "_";
-                else
-                    sep = " " + sep + " ";
-                return this.visit(node.getChild(0)) + sep + this.visit(node.getChild(1));
-            case UNARYOP:
-                if (node.attributes.get("type").equals("()"))
-                    return "(" + this.visit(node.getChild(0)) + ")";
-                else if (node.attributes.get("type").equals("not"))
-                    return "not " + this.visit(node.getChild(0));
-                else
-                    return node.attributes.get("type") + this.visit(node.getChild(0));
-            case IDENTIFIER:
-                return node.attributes.get("name");
-            case LITERAL:
-                String value = node.attributes.get("value");
-                switch (node.attributes.get("type"))
-                {
-                    case "DECINTLITERAL":
-                    case "BININTLITERAL":
-                    case "HEXINTLITERAL":
-                    case "BOOLLITERAL":
-                        return value;
-                    case "BINVECLITERAL":
-                        return "\"" + value + "\"";
-                    case "HEXVECLITERAL":
-                        return "x\"" + value + "\"";
-                    default:
-                        return "";
-                }
+                    break;
+                case IDENTIFIER:
+                    out.append(node.attributes.get("name"));
+                    break;
+                case LITERAL:
+                    String value = node.attributes.get("value");
+                    switch (node.literal)
+                    {
+                        case DECINTLITERAL:
+                        case BININTLITERAL:
+                        case HEXINTLITERAL:
+                        case BOOLLITERAL:
+                            out.append(value);
+                            break;
+                        case BINVECLITERAL:
+                            out.append("\"" + value + "\"");
+                            break;
+                        case HEXVECLITERAL:
+                            out.append("x\"" + value + "\"");
+                            break;
+                    }
+                    break;
+            }
         }
-        return "";
-    }
-
-    /**
-    * Overloaded indent method, assumes default of 4 spaces for indentation
-    * @param str String to be indented
-    */
-    private static String indent(String str)
-    {
-        return indent(str, 4);
-    }
-
-    /**
-    * Utility for indenting strings
-    * @param str String to be indented
-    * @param spaces int number of spaces to use for indentation
-    */
-    private static String indent(String str, int spaces)
-    {
-        String indentStr = new String(new char[spaces]).replace("\0", " ");
-        String[] split = str.split("\n");
-        String result = "";
-        for (String element : split)
-            result += indentStr + element + "\n";
-        return result.substring(0, result.length() - 1);
     }
 
     /**
-    * Gets the VHDL type given cdl type
+    * Writes the VHDL type of a declaration
     * @param node Tree reference to node with an attributes map containing a "type" key (some sort of declaration - e.g. sigdec, port, const, etc.)
     */
-    private String getType(Tree node)
+    private void type(Tree node, VHDLWriter out)
     {
-        String type;
-        switch (node.attributes.get("type"))
+        if (node.datatype == null)
+            return;
+        switch (node.datatype)
         {
-            case "int":
-                type = "integer";
+            case INT:
+                out.append("integer");
                 break;
-            case "bool":
-                type = "boolean";
+            case BOOL:
+                out.append("boolean");
                 break;
-            case "vec":
-                String width = this.visit(node.getChild(0));
-                String newWidth;
-                try
-                {
-                    newWidth = new Integer(Integer.valueOf(width) - 1).toString();
-                }
-                catch (NumberFormatException e)
+            case VEC:
+                CdlType declared = node.getExpressionType(); // cached by the verifier, with the width if it's a literal
+                int width = declared != null && declared.width != CdlType.UNKNOWN ? declared.width : CdlType.intValue(node.getChild(0));
+                if (width == 1)
+                    out.append("unsigned(0)");
+                else if (width != CdlType.UNKNOWN)
+                    out.append("unsigned(" + (width - 1) + " downto 0)");
+                else
                 {
-                    newWidth = "(" + width + " - 1)";
+                    this.expression(node.getChild(0), out.append("unsigned(("));
+                    out.append(" - 1) downto 0)");
                 }
-                type = "unsigned(" + newWidth + (newWidth.equals("0") ? ")" : " downto 0)");
-                break;
-            default:
-                type = "";
                 break;
         }
-        return type;
     }
-}
\ No newline at end of file
+
+    public static void main(String[] args)
+    {
+        // a generated reduction is one expression nested 100000 deep
+        String vhdl = new VHDLGenerator(Benchmark.reduction(100000)).getVHDL();
+        if (!vhdl.contains("y <= a xor a xor a"))
+            throw new RuntimeException("Deep expression test failed");
+        System.out.println("Deep expression test passed");
+    }
+}
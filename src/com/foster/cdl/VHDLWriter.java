@@ -0,0 +1,122 @@
+/*
+VHDLWriter.java - Reed Foster
+Indentation-aware emitter for generated VHDL. Text is appended straight to the underlying Appendable (e.g. a buffered Writer),
+and each line is prefixed with the current indentation as it's started, so blocks never have to be built up and re-indented
+*/
+
+package com.foster.cdl;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+class VHDLWriter
+{
+    private static final int INDENT = 4; // spaces per level
+
+    private final Appendable out;
+    private final List<String> prefixes; // indentation string of each level used so far
+    private int level;
+    private boolean lineStart; // true if nothing has been written on the current line yet
+
+    /**
+    * Constructor
+    * @param out Appendable to write to
+    */
+    VHDLWriter(Appendable out)
+    {
+        this.out = out;
+        this.prefixes = new ArrayList<String>(Arrays.asList(""));
+        this.level = 0;
+        this.lineStart = true;
+    }
+
+    /**
+    * Increases the indentation of the lines started from now on by one level
+    */
+    public VHDLWriter indent()
+    {
+        this.level++;
+        if (this.level == this.prefixes.size())
+            this.prefixes.add(this.prefixes.get(this.level - 1) + new String(new char[INDENT]).replace("\0", " "));
+        return this;
+    }
+
+    /**
+    * Decreases the indentation of the lines started from now on by one level
+    */
+    public VHDLWriter dedent()
+    {
+        this.level--;
+        return this;
+    }
+
+    /**
+    * Appends text to the current line, starting it (with the current indentation) if necessary
+    * @param text CharSequence to write, must not contain newlines
+    * @throws UncheckedIOException if the underlying Appendable fails
+    */
+    public VHDLWriter append(CharSequence text)
+    {
+        try
+        {
+            if (this.lineStart)
+            {
+                this.out.append(this.prefixes.get(this.level));
+                this.lineStart = false;
+            }
+            this.out.append(text);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    /**
+    * Ends the current line (an empty line still gets the current indentation)
+    */
+    public VHDLWriter newline()
+    {
+        this.append("");
+        try
+        {
+            this.out.append('\n');
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        this.lineStart = true;
+        return this;
+    }
+
+    /**
+    * Writes a whole line
+    * @param text CharSequence contents of the line, must not contain newlines
+    */
+    public VHDLWriter line(CharSequence text)
+    {
+        return this.append(text).newline();
+    }
+
+    /**
+    * Flushes the underlying Appendable, if it can be flushed
+    */
+    public void flush()
+    {
+        if (this.out instanceof Flushable)
+        {
+            try
+            {
+                ((Flushable) this.out).flush();
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}